@@ -31,6 +31,10 @@ public class ArchonRobot extends BaseRobot {
 	MapLocation previousWakeupTarget;
 	MapLocation enemySpottedTarget;
 	int enemySpottedRound;
+	// Where the enemy sighting being broadcast is, and the content key that
+	// changes only when the target moves well away from there
+	MapLocation enemySpottedAnnounced;
+	int enemySpottedKey;
 	MapLocation[] neighborsOfPowerCore;
 	MapLocation nextRandomCapTarget;
 	MapLocation adjNode;
@@ -49,6 +53,7 @@ public class ArchonRobot extends BaseRobot {
 	static final int RETREAT_DISTANCE = 8;
 	static final int CHASE_COMPUTE_RADIUS = 7;
 	static final int TURNS_TO_LOCK_ONTO_AN_ENEMY = 30;
+	static final int ENEMY_SPOTTED_MOVE_SQUARED = 36;
 	static final int TURNS_TO_RETREAT = 30;
 	MapLocation lastPowerNodeGuess;
 
@@ -58,6 +63,9 @@ public class ArchonRobot extends BaseRobot {
 		// Bind radio channels
 		io.setChannels(new BroadcastChannel[] { BroadcastChannel.ALL,
 				BroadcastChannel.EXPLORERS, BroadcastChannel.EXTENDED_RADAR });
+		io.registerHandler(BroadcastType.ENEMY_SPOTTED, this);
+		io.registerHandler(BroadcastType.ENEMY_INFO, this);
+		io.registerHandler(BroadcastType.GUESS_ENEMY_TEAM, this);
 
 		// Read/write team memory
 		if (myArchonID == 0)
@@ -275,26 +283,32 @@ public class ArchonRobot extends BaseRobot {
 		// Broadcast my target info to the soldier swarm every 6 turns
 		if (curRound % 6 == myArchonID
 				&& strategy != StrategyState.INITIAL_EXPLORE) {
-			int[] shorts = new int[3];
-			shorts[0] = movingTarget ? 1 : 0;
-			shorts[1] = target.x;
-			shorts[2] = target.y;
-			io.sendUShorts(BroadcastChannel.FIGHTERS,
-					BroadcastType.SWARM_TARGET, shorts);
+			io.begin(BroadcastChannel.FIGHTERS, BroadcastType.SWARM_TARGET);
+			io.putUShort(movingTarget ? 1 : 0);
+			io.putLoc(target);
+			io.end();
 		}
 
-		// Broadcast a possibly out of date enemy sighting every 20 turns
-		if (enemySpottedTarget != null && curRound % 20 == myArchonID * 3) {
-			int[] shorts = new int[3];
-			shorts[0] = enemySpottedRound;
-			shorts[1] = enemySpottedTarget.x;
-			shorts[2] = enemySpottedTarget.y;
-			io.sendUShorts(BroadcastChannel.ALL, BroadcastType.ENEMY_SPOTTED,
-					shorts);
+		// Broadcast a possibly out of date enemy sighting, less often as
+		// allies ack it, the soldiers relay it the rest of the way
+		if (enemySpottedTarget != null
+				&& (enemySpottedAnnounced == null || enemySpottedTarget
+						.distanceSquaredTo(enemySpottedAnnounced) > ENEMY_SPOTTED_MOVE_SQUARED)) {
+			enemySpottedAnnounced = enemySpottedTarget;
+			enemySpottedKey++;
+		}
+		if (enemySpottedTarget != null
+				&& io.criticalDue(BroadcastType.ENEMY_SPOTTED,
+						enemySpottedKey, 20)) {
+			io.begin(BroadcastChannel.ALL, BroadcastType.ENEMY_SPOTTED);
+			io.putUShort(enemySpottedRound);
+			io.putLoc(enemySpottedTarget);
+			io.end();
 		}
 
 		// Rebroadcast enemy team number
-		if (enemyTeam != -1 && curRound % 20 == (myArchonID * 3 + 10) % 20) {
+		if (enemyTeam != -1
+				&& io.criticalDue(BroadcastType.GUESS_ENEMY_TEAM, enemyTeam, 20)) {
 			io.sendUShort(BroadcastChannel.EXPLORERS,
 					BroadcastType.GUESS_ENEMY_TEAM, enemyTeam);
 		}
@@ -479,26 +493,26 @@ public class ArchonRobot extends BaseRobot {
 	}
 
 	@Override
-	public void processMessage(BroadcastType msgType, StringBuilder sb)
+	public void processMessage(BroadcastType msgType, MessageView msg)
 			throws GameActionException {
 		MapLocation newLoc;
 		int enemyDist;
 		switch (msgType) {
 		case ENEMY_SPOTTED:
-			int[] shorts = BroadcastSystem.decodeUShorts(sb);
-			newLoc = new MapLocation(shorts[1], shorts[2]);
+			int spottedRound = msg.readUShort();
+			newLoc = msg.readLoc();
 			enemyDist = enemySpottedTarget == null ? 55555 : curLoc
 					.distanceSquaredTo(enemySpottedTarget);
 			if (enemyDist <= 16)
 				break;
-			if ((curRound > enemySpottedRound + 19 && shorts[0] > enemySpottedRound)
+			if ((curRound > enemySpottedRound + 19 && spottedRound > enemySpottedRound)
 					|| enemyDist > curLoc.distanceSquaredTo(newLoc)) {
-				enemySpottedRound = shorts[0];
+				enemySpottedRound = spottedRound;
 				enemySpottedTarget = newLoc;
 			}
 			break;
 		case ENEMY_INFO:
-			newLoc = BroadcastSystem.decodeSenderLoc(sb);
+			newLoc = BroadcastSystem.decodeSenderLoc(msg);
 			enemyDist = enemySpottedTarget == null ? 55555 : curLoc
 					.distanceSquaredTo(enemySpottedTarget);
 			if (enemyDist <= 16)
@@ -509,21 +523,12 @@ public class ArchonRobot extends BaseRobot {
 				enemySpottedTarget = newLoc;
 			}
 			break;
-		case MAP_EDGES:
-			ses.receiveMapEdges(BroadcastSystem.decodeUShorts(sb));
-			break;
-		case MAP_FRAGMENTS:
-			ses.receiveMapFragment(BroadcastSystem.decodeInts(sb));
-			break;
-		case POWERNODE_FRAGMENTS:
-			ses.receivePowerNodeFragment(BroadcastSystem.decodeInts(sb));
-			break;
 		case GUESS_ENEMY_TEAM:
 			if (enemyTeam == -1) {
-				enemyTeam = BroadcastSystem.decodeShort(sb);
+				enemyTeam = BroadcastSystem.decodeShort(msg);
 			}
 		default:
-			super.processMessage(msgType, sb);
+			super.processMessage(msgType, msg);
 		}
 	}
 
@@ -539,6 +544,9 @@ public class ArchonRobot extends BaseRobot {
 			if (Clock.getRoundNum() == curRound
 					&& Clock.getBytecodesLeft() > 2000)
 				ses.broadcastMapEdges();
+			if (Clock.getRoundNum() == curRound
+					&& Clock.getBytecodesLeft() > 3000)
+				ses.broadcastMapDigest();
 		}
 		super.useExtraBytecodes();
 		if (Clock.getRoundNum() == curRound
@@ -549,8 +557,15 @@ public class ArchonRobot extends BaseRobot {
 				&& Clock.getBytecodesLeft() > 3000)
 			nav.prepare();
 		while (Clock.getRoundNum() == curRound
-				&& Clock.getBytecodesLeft() > 1000)
-			mc.extractUpdatedPackedDataStep();
+				&& Clock.getBytecodesLeft() > 1000) {
+			if (mc.symmetryStep())
+				break;
+		}
+		while (Clock.getRoundNum() == curRound
+				&& Clock.getBytecodesLeft() > 1000) {
+			if (mc.distanceStep())
+				break;
+		}
 	}
 
 	private void resetTarget() {
@@ -1476,92 +1491,97 @@ public class ArchonRobot extends BaseRobot {
 		if (t.equals(lastPowerNodeGuess)) {
 			if (curLoc.distanceSquaredTo(target) < 20
 					&& mc.getEnemyPowerCoreLocation() == null) {
+				// head for an edge whose position is still in doubt
+				boolean north = mc.edgeUnsettled(MapCacheSystem.EDGE_YMIN);
+				boolean east = mc.edgeUnsettled(MapCacheSystem.EDGE_XMAX);
+				boolean west = mc.edgeUnsettled(MapCacheSystem.EDGE_XMIN);
+				boolean south = mc.edgeUnsettled(MapCacheSystem.EDGE_YMAX);
 				switch (myHome.directionTo(curLoc)) {
 				case NORTH: {
-					if (mc.edgeYMin == 0)
+					if (north)
 						target = curLoc.add(Direction.NORTH, 10);
-					else if (mc.edgeXMax == 0)
+					else if (east)
 						target = curLoc.add(Direction.EAST, 10);
-					else if (mc.edgeXMin == 0)
+					else if (west)
 						target = curLoc.add(Direction.WEST, 10);
-					else if (mc.edgeYMax == 0)
+					else if (south)
 						target = curLoc.add(Direction.SOUTH, 10);
 				}
 					break;
 				case NORTH_EAST: {
-					if (mc.edgeYMin == 0)
+					if (north)
 						target = curLoc.add(Direction.NORTH, 10);
-					else if (mc.edgeXMax == 0)
+					else if (east)
 						target = curLoc.add(Direction.EAST, 10);
-					else if (mc.edgeXMin == 0)
+					else if (west)
 						target = curLoc.add(Direction.WEST, 10);
-					else if (mc.edgeYMax == 0)
+					else if (south)
 						target = curLoc.add(Direction.SOUTH, 10);
 				}
 					break;
 				case EAST: {
-					if (mc.edgeXMax == 0)
+					if (east)
 						target = curLoc.add(Direction.EAST, 10);
-					else if (mc.edgeYMin == 0)
+					else if (north)
 						target = curLoc.add(Direction.NORTH, 10);
-					else if (mc.edgeYMax == 0)
+					else if (south)
 						target = curLoc.add(Direction.SOUTH, 10);
-					else if (mc.edgeXMin == 0)
+					else if (west)
 						target = curLoc.add(Direction.WEST, 10);
 				}
 					break;
 				case SOUTH_EAST: {
-					if (mc.edgeXMax == 0)
+					if (east)
 						target = curLoc.add(Direction.EAST, 10);
-					else if (mc.edgeYMax == 0)
+					else if (south)
 						target = curLoc.add(Direction.SOUTH, 10);
-					else if (mc.edgeYMin == 0)
+					else if (north)
 						target = curLoc.add(Direction.NORTH, 10);
-					else if (mc.edgeXMin == 0)
+					else if (west)
 						target = curLoc.add(Direction.WEST, 10);
 				}
 					break;
 				case SOUTH: {
-					if (mc.edgeYMax == 0)
+					if (south)
 						target = curLoc.add(Direction.SOUTH, 10);
-					else if (mc.edgeXMin == 0)
+					else if (west)
 						target = curLoc.add(Direction.WEST, 10);
-					else if (mc.edgeXMax == 0)
+					else if (east)
 						target = curLoc.add(Direction.EAST, 10);
-					else if (mc.edgeYMin == 0)
+					else if (north)
 						target = curLoc.add(Direction.NORTH, 10);
 				}
 					break;
 				case SOUTH_WEST: {
-					if (mc.edgeYMax == 0)
+					if (south)
 						target = curLoc.add(Direction.SOUTH, 10);
-					else if (mc.edgeXMin == 0)
+					else if (west)
 						target = curLoc.add(Direction.WEST, 10);
-					else if (mc.edgeXMax == 0)
+					else if (east)
 						target = curLoc.add(Direction.EAST, 10);
-					else if (mc.edgeYMin == 0)
+					else if (north)
 						target = curLoc.add(Direction.NORTH, 10);
 				}
 					break;
 				case WEST: {
-					if (mc.edgeXMin == 0)
+					if (west)
 						target = curLoc.add(Direction.WEST, 10);
-					else if (mc.edgeYMax == 0)
+					else if (south)
 						target = curLoc.add(Direction.SOUTH, 10);
-					else if (mc.edgeYMin == 0)
+					else if (north)
 						target = curLoc.add(Direction.NORTH, 10);
-					else if (mc.edgeXMax == 0)
+					else if (east)
 						target = curLoc.add(Direction.EAST, 10);
 				}
 					break;
 				case NORTH_WEST: {
-					if (mc.edgeXMin == 0)
+					if (west)
 						target = curLoc.add(Direction.WEST, 10);
-					else if (mc.edgeYMin == 0)
+					else if (north)
 						target = curLoc.add(Direction.NORTH, 10);
-					else if (mc.edgeYMax == 0)
+					else if (south)
 						target = curLoc.add(Direction.SOUTH, 10);
-					else if (mc.edgeXMax == 0)
+					else if (east)
 						target = curLoc.add(Direction.EAST, 10);
 				}
 					break;
@@ -1599,9 +1619,12 @@ public class ArchonRobot extends BaseRobot {
 		return bestDir;
 	}
 
-	//Location of power node adjacent to main power core
+	//Location of power node adjacent to main power core, the closest walk
+	// from the core of those we don't own
 	private MapLocation getNextPowerNodeAdjacentToCore() {
 		PowerNode[] nodes = dc.getAlliedPowerNodes();
+		MapLocation best = null;
+		int bestDist = Integer.MAX_VALUE;
 		for (int i = 0; i < neighborsOfPowerCore.length; i++) {
 			MapLocation loc = neighborsOfPowerCore[i];
 			if (mc.isDeadEndPowerNode(loc))
@@ -1613,10 +1636,15 @@ public class ArchonRobot extends BaseRobot {
 					break;
 				}
 			}
-			if (!flag)
-				return loc;
+			if (flag)
+				continue;
+			int dist = mc.nodeDistance(myHome, loc);
+			if (dist < bestDist) {
+				best = loc;
+				bestDist = dist;
+			}
 		}
-		return null;
+		return best;
 	}
 
 	//If it's possible to capture the note, then returns true
@@ -9,7 +9,7 @@ import battlecode.common.RobotController;
 import battlecode.common.RobotType;
 import battlecode.common.Team;
 
-public abstract class BaseRobot {
+public abstract class BaseRobot implements MessageHandler {
 
 	// Core Subsystems
 	public final RobotController rc;
@@ -47,6 +47,9 @@ public abstract class BaseRobot {
 	public boolean justRevived;
 	public boolean gameEndNow = false;
 	public boolean gameEndDetected = false;
+	// set only when this robot saw the signs itself; robots told by a
+	// broadcast leave announcing to the relays
+	public boolean gameEndSensed = false;
 	public int gameEndTime = GameConstants.MAX_ROUND_LIMIT - Constants.ENDGAME_CAP_MODE_BUFFER;
 	
 	// Internal Statistics
@@ -110,6 +113,8 @@ public abstract class BaseRobot {
 		hsys = new HibernationSystem(this);
 		mas = new MessageAttackSystem(this);
 		
+		io.registerHandler(BroadcastType.DETECTED_GAME_END, this);
+		
 		mc.senseAll();
 		
 	}
@@ -123,8 +128,8 @@ public abstract class BaseRobot {
 			resetClock();
 			updateRoundVariables();
 			
-			// Purge send queue 
-			io.flushSendQueue();
+			// Drop stale queued messages, keep what missed last round's budget
+			io.expireSendQueue();
 			
 			// Message Receive Loop
 			try {
@@ -179,11 +184,12 @@ public abstract class BaseRobot {
 		gameEndNow = curRound > gameEndTime;
 	}
 	
-	//Generic message handler
-	public void processMessage(BroadcastType msgType, StringBuilder sb) throws GameActionException {
+	//Generic message handler, registered for game end detection.
+	//Subclasses register for their own types and fall back on this.
+	public void processMessage(BroadcastType msgType, MessageView msg) throws GameActionException {
 		if(msgType == BroadcastType.DETECTED_GAME_END) {
 			int round;
-			if((round=BroadcastSystem.decodeShort(sb)) < gameEndTime) {
+			if((round=BroadcastSystem.decodeShort(msg)) < gameEndTime) {
 				gameEndTime = round;
 			}
 			this.gameEndDetected = true;
@@ -221,8 +227,8 @@ public abstract class BaseRobot {
 	public void useExtraBytecodes() throws GameActionException {
 		
 		// Game Ending Detection Stuff
-		if(gameEndDetected && Clock.getRoundNum() == curRound && Clock.getBytecodesLeft() > 300) {
-			if(Clock.getRoundNum()%11 == myID%11)  //announce to allies
+		if(gameEndSensed && Clock.getRoundNum() == curRound && Clock.getBytecodesLeft() > 300) {
+			if(io.criticalDue(BroadcastType.DETECTED_GAME_END, gameEndTime, 11))  //announce to allies until they ack
 				io.sendUShort(BroadcastChannel.ALL, BroadcastType.DETECTED_GAME_END, gameEndTime);
 		}
 	
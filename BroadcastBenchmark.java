@@ -0,0 +1,454 @@
+package tcwolf;
+
+import java.util.Arrays;
+
+import battlecode.common.Clock;
+import battlecode.common.GameActionException;
+import battlecode.common.MapLocation;
+import battlecode.common.Message;
+import battlecode.common.RobotType;
+
+//Benchmarks for the BroadcastSystem wire codec.
+//  Every send method is timed against its decoder, and receive() against
+//  whole rounds of traffic of the kinds that load the radio in real games.
+//  All traffic comes from fixed seeds and every case reports the median of
+//  several passes taken after a warm-up, so two runs on one machine can be
+//  compared to judge a codec change.
+//
+//  Each case reports wall time per call on the JVM, and bytecodes per call
+//  as counted by Clock.getBytecodeNum.  The bytecode count is only live
+//  when run() is called from a robot inside the engine; on a plain JVM it
+//  reads zero.  Receive cases are fed fresh String copies on every call, as
+//  each robot gets its own copy of a broadcast and no String hash is ever
+//  cached, and the cost of making the copies is measured on its own and
+//  subtracted.
+//
+//  Bytecodes per message for the move from String.concat chains to the char
+//  send buffer, counted off the engine by an agent that ticks once per
+//  executed instruction (run -Xint, so String internals are counted too,
+//  with those of the JDK 17 String standing in for the engine's).  One
+//  record of each type queued with a typical payload and sent on its own:
+//    ENEMY_KILL, GUESS_ENEMY_TEAM, DETECTED_GAME_END   4410 -> 1809
+//    SWARM_TARGET, ENEMY_SPOTTED (3 shorts)            5504 -> 2107
+//    MAP_EDGES (4 shorts)                              5889 -> 2192
+//    ENEMY_INFO (own info plus 3 enemies, 20 shorts)  12852 -> 3552
+//    MAP_FRAGMENTS, POWERNODE_FRAGMENTS (6 ints)       9507 -> 2900
+//  Counting tcwolf code alone, with every library call as one bytecode, the
+//  same messages go up by 60 to 100 each, as the writes the Strings used to
+//  do now happen in our own code.
+public class BroadcastBenchmark implements MessageHandler {
+
+	private static final int WARMUP_PASSES = 3;
+	private static final int TIMED_PASSES = 5;
+
+	// Calls per pass, per codec case and per receive case
+	private static final int CODEC_RUNS = 20000;
+	private static final int RECEIVE_RUNS = 1000;
+
+	// Seeds for the generated traffic
+	private static final int SEED_1 = 0x5EED;
+	private static final int SEED_2 = 2012;
+
+	// Team key of the enemy in the spam mix
+	private static final int ENEMY_KEY = 0x7A11;
+
+	//One thing to time.  Returns something derived from its work so the
+	// JIT can't throw the work away.
+	private static abstract class Case {
+		abstract int run() throws GameActionException;
+	}
+
+	// Radio that encodes the traffic, and radio that receives it.  Both
+	// are unbound and share the team key of the test constructor.
+	private final BroadcastSystem tx, rx;
+
+	// Map the receiver integrates map fragments into, as a robot would
+	private final MapCacheSystem mc;
+
+	// Payloads handed to processMessage so far, and the decoder results
+	private int payloads;
+	private int sink;
+
+	private BroadcastBenchmark() {
+		tx = new BroadcastSystem();
+		rx = new BroadcastSystem();
+		mc = new MapCacheSystem(null, new MapLocation(16430, 16430),
+				RobotType.ARCHON);
+		rx.setChannels(BroadcastChannel.values());
+		rx.registerHandler(BroadcastType.ENEMY_INFO, this);
+		rx.registerHandler(BroadcastType.ENEMY_KILL, this);
+		rx.registerHandler(BroadcastType.MAP_FRAGMENTS, this);
+		rx.registerHandler(BroadcastType.MAP_EDGES, this);
+	}
+
+	//Decodes what the robots would decode for each type, so receive cases
+	// include the handler's share of the work.
+	@Override
+	public void processMessage(BroadcastType msgType, MessageView msg) {
+		payloads++;
+		switch (msgType) {
+		case ENEMY_INFO:
+			sink += BroadcastSystem.decodeEnemyInfo(msg).length;
+			break;
+		case ENEMY_KILL:
+			sink += BroadcastSystem.decodeShort(msg);
+			break;
+		case MAP_FRAGMENTS:
+			SharedExplorationSystem.integrateMapFragment(msg, mc);
+			sink += mc.inMapXMax;
+			break;
+		case MAP_EDGES:
+			sink += BroadcastSystem.decodeUShorts(msg).length;
+			break;
+		default:
+			break;
+		}
+	}
+
+	//Median wall time per call in ns, over the timed passes.
+	private long timeCase(Case c, int runs) throws GameActionException {
+		long[] ns = new long[TIMED_PASSES];
+		for (int pass = 0; pass < WARMUP_PASSES + TIMED_PASSES; pass++) {
+			long t0 = System.nanoTime();
+			for (int i = 0; i < runs; i++)
+				sink += c.run();
+			long t = System.nanoTime() - t0;
+			if (pass >= WARMUP_PASSES)
+				ns[pass - WARMUP_PASSES] = t;
+		}
+		Arrays.sort(ns);
+		return ns[TIMED_PASSES / 2] / runs;
+	}
+
+	//Bytecodes for a single call, or -1 if the call ran over into the
+	// next round and the count is meaningless.
+	private int countCase(Case c) throws GameActionException {
+		int round = Clock.getRoundNum();
+		int b0 = Clock.getBytecodeNum();
+		sink += c.run();
+		int b1 = Clock.getBytecodeNum();
+		return Clock.getRoundNum() == round ? b1 - b0 : -1;
+	}
+
+	private void report(String name, int chars, long ns, int bytecodes) {
+		System.out.println(name + "\t" + chars + " chars\t" + ns + " ns\t"
+				+ (bytecodes < 0 ? "?" : Integer.toString(bytecodes))
+				+ " bytecodes");
+	}
+
+	//Times an encode, then the matching decode of what it produced.  The
+	// encode queues one record, which is dropped again after each call.
+	private void codecPair(String name, final Case encode, int runs)
+			throws GameActionException {
+		tx.flushSendQueue();
+		encode.run();
+		final MessageView v = tx.sentPayload();
+		tx.flushSendQueue();
+		Case send = new Case() {
+			int run() throws GameActionException {
+				int r = encode.run();
+				tx.flushSendQueue();
+				return r;
+			}
+		};
+		report(name + " send", v.length(), timeCase(send, runs),
+				countCase(send));
+
+		final Case decode = decoderFor(name, v);
+		report(name + " decode", v.length(), timeCase(decode, runs),
+				countCase(decode));
+	}
+
+	private Case decoderFor(String name, final MessageView v) {
+		if (name.startsWith("ushorts"))
+			return new Case() {
+				int run() {
+					return BroadcastSystem.decodeUShorts(v).length;
+				}
+			};
+		if (name.startsWith("uints"))
+			return new Case() {
+				int run() {
+					return BroadcastSystem.decodeInts(v).length;
+				}
+			};
+		if (name.startsWith("maplocs"))
+			return new Case() {
+				int run() {
+					return BroadcastSystem.decodeMapLocs(v).length;
+				}
+			};
+		if (name.startsWith("enemyinfo"))
+			return new Case() {
+				int run() {
+					return BroadcastSystem.decodeEnemyInfo(v).length;
+				}
+			};
+		return new Case() {
+			int run() {
+				v.pos = 0;
+				return v.readUShort() + v.readLoc().x + v.readUInt();
+			}
+		};
+	}
+
+	//Times signature verification of a len char message, the new hash
+	// against the legacy one.
+	private void verify(int len) throws GameActionException {
+		final char[] chars = new char[len];
+		for (int i = 0; i < len; i++)
+			chars[i] = (char) Util.randInt();
+		Case copy = new Case() {
+			int run() {
+				return new String(chars).length();
+			}
+		};
+		Case legacy = new Case() {
+			int run() {
+				return BroadcastSystem.legacyHashMessage(new String(chars),
+						rx.teamkey);
+			}
+		};
+		Case hash = new Case() {
+			int run() {
+				return rx.hashMessage(new String(chars));
+			}
+		};
+		long copyNs = timeCase(copy, CODEC_RUNS);
+		int copyBc = countCase(copy);
+		report("verify legacy", len, timeCase(legacy, CODEC_RUNS) - copyNs,
+				countCase(legacy) - copyBc);
+		report("verify", len, timeCase(hash, CODEC_RUNS) - copyNs,
+				countCase(hash) - copyBc);
+	}
+
+	//Times receive() on one round of traffic.  Per call, payloads handed
+	// to the handlers are counted once.
+	private void receiveMix(String name, final Message[] traffic)
+			throws GameActionException {
+		int chars = 0;
+		for (int k = 0; k < traffic.length; k++) {
+			String[] s = traffic[k].strings;
+			if (s != null && s.length > 0 && s[0] != null)
+				chars += s[0].length();
+		}
+		Case copy = new Case() {
+			int run() {
+				return fresh(traffic).length;
+			}
+		};
+		Case receive = new Case() {
+			int run() throws GameActionException {
+				rx.receive(fresh(traffic));
+				return payloads;
+			}
+		};
+		long copyNs = timeCase(copy, RECEIVE_RUNS);
+		int copyBc = countCase(copy);
+		payloads = 0;
+		receive.run();
+		int handled = payloads;
+		report("receive " + name + " (" + traffic.length + " msgs, "
+				+ handled + " payloads)", chars, timeCase(receive,
+				RECEIVE_RUNS) - copyNs, countCase(receive) - copyBc);
+	}
+
+	//A copy of a round's traffic with new Strings and nothing else shared
+	private static Message[] fresh(Message[] traffic) {
+		Message[] msgs = new Message[traffic.length];
+		for (int k = 0; k < traffic.length; k++) {
+			Message src = traffic[k];
+			Message m = new Message();
+			m.ints = src.ints;
+			m.locations = src.locations;
+			if (src.strings != null) {
+				m.strings = new String[src.strings.length];
+				for (int j = 0; j < src.strings.length; j++)
+					m.strings[j] = src.strings[j] == null ? null
+							: new String(src.strings[j]);
+			}
+			msgs[k] = m;
+		}
+		return msgs;
+	}
+
+	//Random coordinate within r of the origin
+	private static int near(int r) {
+		return (int) (Util.randDouble() * (2 * r + 1)) - r;
+	}
+
+	//40 fighters each reporting itself and five enemies on the extended
+	// radar, every fourth one with a kill as well.
+	private Message[] battleTraffic(int round) {
+		Message[] msgs = new Message[40];
+		for (int r = 0; r < msgs.length; r++) {
+			int[] info = new int[6 * 5];
+			info[0] = 100 + r;
+			info[1] = near(20);
+			info[2] = near(20);
+			info[3] = 10000 + (int) (Util.randDouble() * 60);
+			info[4] = r % 4;
+			for (int n = 5; n < info.length; n += 5) {
+				info[n] = 1000 + (int) (Util.randDouble() * 60);
+				info[n + 1] = near(40);
+				info[n + 2] = near(40);
+				info[n + 3] = (int) (Util.randDouble() * 100);
+				info[n + 4] = (int) (Util.randDouble() * 80);
+			}
+			tx.sendEnemyInfo(BroadcastChannel.EXTENDED_RADAR,
+					BroadcastType.ENEMY_INFO, info);
+			if (r % 4 == 0)
+				tx.sendUShort(BroadcastChannel.EXTENDED_RADAR,
+						BroadcastType.ENEMY_KILL, info[5]);
+			msgs[r] = tx.drain(round, 100 + r);
+		}
+		return msgs;
+	}
+
+	//12 archons and scouts each sharing two runs of 3 to 12 map blocks,
+	// as SharedExplorationSystem does, and their map edges.  Half the
+	// blocks are open land or solid wall, the rest mixed or partly sensed.
+	private Message[] exploreTraffic(int round) {
+		Message[] msgs = new Message[12];
+		for (int r = 0; r < msgs.length; r++) {
+			int run = 3 * (1 + r % 4);
+			int n = 2 * run;
+			int[] blocks = new int[n];
+			int[] walls = new int[n];
+			int[] sensed = new int[n];
+			for (int i = 0; i < n; i++) {
+				blocks[i] = (i < run ? 40 : 640) + r * 16 + i;
+				int bits = Util.randInt() & 0xFFFF;
+				switch (i & 3) {
+				case 0: walls[i] = 0; sensed[i] = 0xFFFF; break;
+				case 1: walls[i] = 0xFFFF; sensed[i] = 0xFFFF; break;
+				case 2: walls[i] = bits; sensed[i] = 0xFFFF; break;
+				default: walls[i] = bits & 0x0F0F; sensed[i] = 0x0FFF; break;
+				}
+			}
+			SharedExplorationSystem.putMapFragment(tx, blocks, walls, sensed, n);
+			tx.sendUShorts(BroadcastChannel.ALL, BroadcastType.MAP_EDGES,
+					new int[] { 0, 16400, 16460, 0, 110, 150, 104, 140 });
+			msgs[r] = tx.drain(round, 200 + r);
+		}
+		return msgs;
+	}
+
+	//40 messages of which 32 come from an enemy team, in the three shapes
+	// its robots use, 4 are forgeries carrying our key, and 4 are ours.
+	private Message[] spamTraffic(int round) {
+		Message[] msgs = new Message[40];
+		for (int r = 0; r < msgs.length; r++) {
+			Message m;
+			if (r % 10 < 3) {
+				m = new Message();
+				m.ints = new int[] { ENEMY_KEY, Util.randInt(), r };
+				m.strings = new String[] { randomString(30) };
+			} else if (r % 10 < 6) {
+				m = new Message();
+				m.ints = new int[] { ENEMY_KEY };
+				m.locations = new MapLocation[] { new MapLocation(near(60),
+						near(60)) };
+			} else if (r % 10 < 8) {
+				m = new Message();
+				m.ints = new int[] { ENEMY_KEY, Util.randInt() };
+				m.strings = new String[] { randomString(60) };
+			} else if (r % 10 == 8) {
+				tx.sendUShort(BroadcastChannel.ALL, BroadcastType.ENEMY_KILL,
+						r);
+				m = tx.drain(round, 300 + r);
+				m.ints[1]++;
+			} else {
+				tx.sendUShort(BroadcastChannel.EXTENDED_RADAR,
+						BroadcastType.ENEMY_KILL, r);
+				m = tx.drain(round, 300 + r);
+			}
+			msgs[r] = m;
+		}
+		return msgs;
+	}
+
+	private static String randomString(int len) {
+		char[] chars = new char[len];
+		for (int i = 0; i < len; i++)
+			chars[i] = (char) Util.randInt();
+		return new String(chars);
+	}
+
+	//Runs every case and prints one line per case.
+	public static void run() throws GameActionException {
+		Util.randInit(SEED_1, SEED_2);
+		final BroadcastBenchmark b = new BroadcastBenchmark();
+		final BroadcastSystem tx = b.tx;
+
+		final int[] ushorts = new int[8];
+		final int[] uints = new int[16];
+		final MapLocation[] locs = new MapLocation[8];
+		final int[] info = new int[10 * 5];
+		for (int i = 0; i < ushorts.length; i++)
+			ushorts[i] = Util.randInt() & 0xFFFF;
+		for (int i = 0; i < uints.length; i++)
+			uints[i] = Util.randInt();
+		for (int i = 0; i < locs.length; i++)
+			locs[i] = new MapLocation(near(i < 6 ? 40 : 400), near(40));
+		for (int n = 0; n < info.length; n += 5) {
+			info[n] = 1000 + n;
+			info[n + 1] = near(40);
+			info[n + 2] = near(40);
+			info[n + 3] = n == 0 ? 10043 : n * 2;
+			info[n + 4] = n == 0 ? 1 : n == 45 ? 55555 : n;
+		}
+
+		b.codecPair("ushorts x8", new Case() {
+			int run() {
+				tx.sendUShorts(BroadcastChannel.ALL, BroadcastType.NONE,
+						ushorts);
+				return 1;
+			}
+		}, CODEC_RUNS);
+		b.codecPair("uints x16", new Case() {
+			int run() {
+				tx.sendUInts(BroadcastChannel.ALL, BroadcastType.NONE, uints);
+				return 1;
+			}
+		}, CODEC_RUNS);
+		b.codecPair("maplocs x8", new Case() {
+			int run() {
+				tx.sendMapLocs(BroadcastChannel.ALL, BroadcastType.NONE, locs);
+				return 1;
+			}
+		}, CODEC_RUNS);
+		b.codecPair("enemyinfo x10", new Case() {
+			int run() {
+				tx.sendEnemyInfo(BroadcastChannel.ALL, BroadcastType.NONE,
+						info);
+				return 1;
+			}
+		}, CODEC_RUNS);
+		b.codecPair("builder SLI", new Case() {
+			int run() {
+				tx.begin(BroadcastChannel.ALL, BroadcastType.NONE);
+				tx.putUShort(77);
+				tx.putLoc(3, -4);
+				tx.putUInt(500000);
+				tx.end();
+				return 1;
+			}
+		}, CODEC_RUNS);
+
+		b.verify(16);
+		b.verify(64);
+		b.verify(256);
+
+		int round = Clock.getRoundNum();
+		b.receiveMix("battle", b.battleTraffic(round));
+		b.receiveMix("explore", b.exploreTraffic(round));
+		b.receiveMix("spam", b.spamTraffic(round));
+
+		System.out.println("(" + b.sink % 2 + ")");
+	}
+
+	public static void main(String args[]) throws GameActionException {
+		run();
+	}
+}
@@ -10,10 +10,11 @@ public enum BroadcastChannel {
 	EXPLORERS,
 	;
 
-	//The 2 char channel header
-	public final String chanHeader;
+	//Channel bit.  Records carry an OR of these, so one record can go to
+	//several channels, and receivers match with a single AND.
+	public final int mask;
 	
 	private BroadcastChannel() {
-		chanHeader = BroadcastSystem.CHANHEADER_S + ((char)this.ordinal());
+		mask = 1 << this.ordinal();
 	}
 }
@@ -4,60 +4,218 @@ import java.util.Arrays;
 
 import battlecode.common.Clock;
 import battlecode.common.GameActionException;
+import battlecode.common.GameConstants;
 import battlecode.common.MapLocation;
 import battlecode.common.Message;
 import battlecode.common.RobotType;
 
 
 //This communication system was adapted by example.  
-//It does not protect against DoS attacks.
+//Flooding is bounded rather than prevented: receive() inspects a capped
+//number of messages under a bytecode ceiling, and enemy message shapes
+//seen before are thrown out on the first check.
 //
-//The communication works off the idea that channelsaddresses
-//are two characters in the form of #x, where # is invariable and the x
-//can be any string which you wish to listen on.
+//A broadcast is one String.  It opens with a fixed metadata block
+//(round, sender id, sender x, sender y, scope) followed by framed records.
+//The scope is the squared radius the widest record in the broadcast is
+//meant for; receivers farther away drop the broadcast before hashing it.
+//Records are framed, the channel being a mask of BroadcastChannel bits so
+//one record can address several channels at once:
 //
-//Depending on what needs to be sent, messages can take the place of a
-//15-bit unassigned short or a 30-bit unassigned short.  Make sure each
-//element in the array is LESS THAN 32768, otherwise deserialization will
-//fail and robots will explode.  For this reason,  the 15-bit are the 
-//preferred message of transport.
+//   [channel] [type] [length] [payload x length]
+//
+//Every record states its own length, so decoding never scans for markers
+//and payload chars may use all 16 bits.  Ints travel as two chars (low
+//half, high half) and keep all 32 bits.
+//
+//Locations travel relative to the sender in the metadata (or the origin,
+//for relayed records): one char holding dx in the high byte and dy in the
+//low byte, both signed.  A high byte of 0x80 escapes to the absolute x
+//and y in the two chars that follow.
+//
+//Records of a relayed type (BroadcastType.relayTTL > 0) open their payload
+//with the originator's own metadata block and a hop count:
+//
+//   [round] [id] [x] [y] [ttl] [payload ...]
+//
+//Receivers relay such a record at most once, and handlers see the
+//originator, not the last hop, through decodeSender*().
+//
+//Critical types (BroadcastType.critical) are made reliable by
+//acknowledgement rather than blind repetition.  Each new critical message
+//takes the next of 16 sequence numbers, carried in the high byte of its
+//record's type char.  Receivers collect the numbers they hear from each
+//originator and piggy-back them as ACK bitmaps on their next broadcast.
+//Originators ask criticalDue() when to repeat, and it backs off
+//exponentially while enough acks keep coming.
 //
 //Tweaking of this class must be kept at a minimum.  Any miscalculations
 //will cause all robots to self destruct (aka throw errors).
 
 public class BroadcastSystem {
 
-	public static char CHANHEADER_C = ((char) -1);
-	public static char TERMINATOR_C = ((char) -2);
-	public static char METADATA_C = ((char) -3);
-
-	public static String CHANHEADER_S = String.valueOf(CHANHEADER_C);
-	public static String TERMINATOR_S = String.valueOf(TERMINATOR_C);
-	public static String METADATA_S = String.valueOf(METADATA_C);
-
-	private String[] boundChannelHeaders;
+	// Metadata block at the start of every broadcast
+	private static final int METADATA_LENGTH = 5;
+	private static final int META_ROUND = 0;
+	private static final int META_ID = 1;
+	private static final int META_X = 2;
+	private static final int META_Y = 3;
+	private static final int META_SCOPE = 4;
+
+	// Record header: channel, type, payload length
+	private static final int RECORD_HEADER_LENGTH = 3;
+
+	// Origin block (round, id, x, y) and hop count in front of a relayed
+	// payload
+	private static final int RELAY_TTL = META_Y + 1;
+	private static final int RELAY_HEADER_LENGTH = RELAY_TTL + 1;
+
+	// Direct mapped cache of relayed records already handled, keyed by
+	// origin id and round, with the type alongside
+	private static final int SEEN_CACHE_SIZE = 64;
+	private final int[] seenKeys = new int[SEEN_CACHE_SIZE];
+	private final int[] seenTypes = new int[SEEN_CACHE_SIZE];
+
+	// High byte of a compact location that is followed by an absolute one
+	private static final int REL_ESCAPE = 0x80;
+
+	// ENEMY_INFO entry flags: own info, unknown distance
+	private static final int INFO_OWN = 0x8000;
+	private static final int INFO_NO_DIST = 0xFF;
+
+	// Odd, so signing is a bijection of the string hash
+	private static final int HASH_MULTIPLIER = 0x9E3779B1;
+
+	// Most messages looked at per turn, and the bytecodes receiving and
+	// dispatching may spend together, however much traffic arrives
+	private static final int MAX_INSPECTED_PER_TURN = 60;
+	private static final int RECEIVE_BYTECODE_CEILING = 3000;
+
+	// Direct mapped cache of enemy message fingerprints
+	private static final int SHAPE_CACHE_SIZE = 64;
+	private final int[] enemyShapes = new int[SHAPE_CACHE_SIZE];
+
+	// Verified broadcasts waiting to be dispatched, oldest first, in
+	// slots [inboxHead, inboxTail).  inboxUrgent is where each one's
+	// urgent records pick up next turn (-1 once they are done), and
+	// inboxResume is where dispatch of the rest of the head message does.
+	private static final int INBOX_SIZE = 48;
+	private final String[] inboxData = new String[INBOX_SIZE];
+	private final int[] inboxTime = new int[INBOX_SIZE];
+	private final int[] inboxUrgent = new int[INBOX_SIZE];
+	private int inboxHead, inboxTail;
+	private int inboxResume = METADATA_LENGTH;
+
+	// Share of the ceiling verification leaves for dispatch, so a flood of
+	// traffic cannot starve the inbox
+	private static final int DISPATCH_BYTECODE_RESERVE = 1000;
+
+	// Records of this priority and up are dispatched from every waiting
+	// broadcast before any bulk map record, so short lived combat news
+	// isn't left to expire behind a backlog of map fragments
+	private static final int URGENT_PRIORITY = 2;
+
+	// BroadcastChannel.mask bits this robot listens on
+	private int listenMask;
 	private BaseRobot br;
 	public int teamkey;
 
 	private boolean shouldSendWakeup;
 	private final boolean activateMAS;
 
-	StringBuilder msgContainer;
-
-	private BroadcastSystem() {
+	// Outgoing message buffer.  Every send method writes its header and
+	// payload straight into sendBuf; sendAll() turns it into a String once.
+	private char[] sendBuf;
+	private int sendLen;
+
+	private static final int SEND_BUFFER_SIZE = 512;
+
+	// Send queue bookkeeping, one slot per record in sendBuf: where it
+	// starts, its length including the header, its type ordinal (-1 once
+	// sent or superseded), its priority, the round it was queued, its
+	// scope, and the location its compact locations are relative to (-1
+	// if they aren't, or ride on an origin block).
+	private int[] recStart, recLen, recType, recPriority, recRound, recScope,
+			recAnchor;
+	private int recCount;
+
+	// Does the open record get anchored when it writes its first location?
+	private boolean anchorPending;
+
+	// Records of each type that have actually gone out, by ordinal
+	private final int[] typeSentCount = new int[BroadcastType.values().length];
+
+	// Scratch buffer the scheduler packs the outgoing broadcast into
+	private char[] outBuf;
+
+	private static final int SEND_QUEUE_SIZE = 32;
+
+	// Records that have waited this many rounds are dropped
+	private static final int SEND_QUEUE_MAX_AGE = 6;
+
+	// Held back records are flushed once this many chars of them pile up
+	private static final int BATCH_FLUSH_CHARS = 24;
+
+	// Share of current flux a robot may spend on one broadcast, and the
+	// larger share critical records and acks may use, so a robot low on
+	// flux can still raise an alarm or confirm one
+	private static final double RADIO_FLUX_FRACTION = 0.05;
+	private static final double CRITICAL_FLUX_FRACTION = 0.5;
+
+	// Critical message sequence numbers, and the flag marking a type char
+	// as carrying one
+	private static final int CRIT_SEQ_COUNT = 16;
+	private static final int CRIT_FLAG = 0x10;
+
+	// Acks from this many robots between repeats double the interval, up
+	// to the maximum
+	private static final int CRIT_ACKS_WANTED = 3;
+	private static final int CRIT_MAX_INTERVAL = 160;
+
+	// Per critical type, by ordinal: sequence number of the message being
+	// repeated (-1 for none), its content key, robots that acked it since
+	// the last repeat, repeat interval and the round the next repeat is
+	// due.  critAckers holds the ids of the first CRIT_ACKS_WANTED of those
+	// robots, so one robot acking on several turns counts once.
+	private int[] critSeq, critContent, critAcks, critInterval, critDue;
+	private int[][] critAckers;
+	private int critNextSeq;
+
+	// Sequence numbers heard per originator, waiting to be acked
+	private static final int ACK_SLOTS = 8;
+	private final int[] ackIDs = new int[ACK_SLOTS];
+	private final int[] ackBits = new int[ACK_SLOTS];
+	private int ackCount;
+
+	// Reused window handed to processMessage for every received payload
+	private final MessageView view;
+
+	// Who consumes each BroadcastType, by ordinal.  Records of a type
+	// without a handler are skipped by length and never looked into.
+	private final MessageHandler[] handlers = new MessageHandler[BroadcastType
+			.values().length];
+
+	//Unbound radio for offline tests and BroadcastBenchmark.  It stands at
+	// the origin, so locations are encoded and ranged against (0, 0).
+	BroadcastSystem() {
 		System.out.println("WARNING: RADIO NOT BOUND TO BASEROBOT");
-		msgContainer = new StringBuilder();
+		sendBuf = new char[SEND_BUFFER_SIZE];
+		sendLen = METADATA_LENGTH;
+		initSendQueue();
 		teamkey = 1;
+		view = new MessageView();
 
 		activateMAS = false;
 	}
 
 	public BroadcastSystem(BaseRobot br) {
 		this.br = br;
-		boundChannelHeaders = new String[0];
+		view = new MessageView();
 		teamkey = (br.myHome.x * 0xFFFF) + br.myHome.y;
 
-		msgContainer = new StringBuilder();
+		sendBuf = new char[SEND_BUFFER_SIZE];
+		sendLen = METADATA_LENGTH;
+		initSendQueue();
 		shouldSendWakeup = false;
 
 		activateMAS = (br.myType == RobotType.SCOUT);
@@ -65,91 +223,318 @@ public class BroadcastSystem {
 	
 	//Set Channels for a robot.
 	public void setChannels(BroadcastChannel[] channels) {
-		boundChannelHeaders = new String[channels.length];
-		for (int i = 0; i < channels.length; i++) {
-			boundChannelHeaders[i] = channels[i].chanHeader;
-		}
+		int mask = 0;
+		for (int i = channels.length; --i >= 0;)
+			mask |= channels[i].mask;
+		listenMask = mask;
 	}
 
 	//Is the robot already tuning in?
 	public boolean hasChannel(BroadcastChannel chn) {
-		return findChannel(chn) != -1;
+		return (listenMask & chn.mask) != 0;
 	}
 
-	private int findChannel(BroadcastChannel chn) {
-		for (int i = boundChannelHeaders.length; --i >= 0;) {
-			if (boundChannelHeaders[i] == chn.chanHeader) {
-				return i;
-			}
+	//Adds a listening channel to the robot.
+	public boolean addChannel(BroadcastChannel chn) {
+		if (hasChannel(chn))
+			return false;
+		listenMask |= chn.mask;
+		return true;
+	}
+
+	//Removes a channel from a robot
+	public boolean removeChannel(BroadcastChannel chn) {
+		if (!hasChannel(chn))
+			return false;
+		listenMask &= ~chn.mask;
+		return true;
+	}
+
+	//Routes received messages of a type to a handler, replacing whatever
+	// handled that type before.  Subsystems register at construction and
+	// robots afterwards, so a robot can take over a type for itself.
+	public void registerHandler(BroadcastType bType, MessageHandler handler) {
+		handlers[bType.ordinal()] = handler;
+	}
+
+	//The next broadcast will have a wakeup note attached.
+	public void sendWakeupCall() {
+		shouldSendWakeup = true;
+	}
+
+	private void initSendQueue() {
+		recStart = new int[SEND_QUEUE_SIZE];
+		recLen = new int[SEND_QUEUE_SIZE];
+		recType = new int[SEND_QUEUE_SIZE];
+		recPriority = new int[SEND_QUEUE_SIZE];
+		recRound = new int[SEND_QUEUE_SIZE];
+		recScope = new int[SEND_QUEUE_SIZE];
+		recAnchor = new int[SEND_QUEUE_SIZE];
+		recCount = 0;
+		outBuf = new char[SEND_BUFFER_SIZE];
+
+		int types = BroadcastType.values().length;
+		critSeq = new int[types];
+		Arrays.fill(critSeq, -1);
+		critContent = new int[types];
+		critAcks = new int[types];
+		critAckers = new int[types][CRIT_ACKS_WANTED];
+		critInterval = new int[types];
+		critDue = new int[types];
+	}
+
+	//Makes room for n more chars in the send buffer.
+	//Only grows on unusually large rounds, so the common path allocates nothing.
+	private void reserve(int n) {
+		if (sendLen + n > sendBuf.length) {
+			char[] grown = new char[Math.max(sendBuf.length * 2, sendLen + n)];
+			System.arraycopy(sendBuf, 0, grown, 0, sendLen);
+			sendBuf = grown;
 		}
-		return -1;
 	}
 
-	//Adds a listening channel to the robot.
-	public boolean addChannel(BroadcastChannel chn) {
-		if (!hasChannel(chn)) {
+	//Writes a record header for a payload of len chars and enters the
+	// record in the send queue.  Relayed types get this robot's origin
+	// block in front of the payload.
+	private void writeHeader(int chanMask, BroadcastType bType, int len) {
+		int t = bType.ordinal();
+		char typeChar = bType.header_c;
+		if (bType.critical && critSeq[t] >= 0)
+			typeChar |= (CRIT_FLAG | critSeq[t]) << 8;
+
+		if (bType.relayTTL == 0) {
+			openRecord((char) chanMask, bType, typeChar, len, bType.supersedes);
+			return;
+		}
 
-			int oldlen = boundChannelHeaders.length;
+		openRecord((char) chanMask, bType, typeChar, RELAY_HEADER_LENGTH + len,
+				bType.supersedes);
+		char[] buf = sendBuf;
+		int c = sendLen;
+		int round = Clock.getRoundNum();
+		int me = br == null ? 0 : br.myID;
+		buf[c + META_ROUND] = (char) round;
+		buf[c + META_ID] = (char) me;
+		buf[c + META_X] = (char) (br == null ? 0 : br.curLoc.x);
+		buf[c + META_Y] = (char) (br == null ? 0 : br.curLoc.y);
+		buf[c + RELAY_TTL] = (char) bType.relayTTL;
+		sendLen = c + RELAY_HEADER_LENGTH;
+
+		// our own record will come back to us as a relay
+		markSeen(me, round, bType.header_c);
+	}
 
-			String[] newAddrs = new String[oldlen + 1];
-			System.arraycopy(boundChannelHeaders, 0, newAddrs, 0, oldlen);
-			newAddrs[oldlen] = chn.chanHeader;
-			boundChannelHeaders = newAddrs;
+	//Reserves room for a record of len payload chars, enters it in the
+	// send queue and writes its header.
+	private void openRecord(char chan, BroadcastType bType, char typeChar,
+			int len, boolean supersede) {
+		reserve(RECORD_HEADER_LENGTH + len);
+		char[] buf = sendBuf;
+		int c = sendLen;
+		int type = bType.ordinal();
+
+		// an older queued copy on the same channel is now redundant.  Only
+		// our own records supersede, so of a relayed type only our own
+		// copies go, not the ones we pass on for other robots.
+		if (supersede) {
+			int me = bType.relayTTL == 0 ? -1 : br == null ? 0 : br.myID;
+			for (int j = recCount; --j >= 0;) {
+				if (recType[j] == type
+						&& buf[recStart[j]] == chan
+						&& (me < 0 || buf[recStart[j] + RECORD_HEADER_LENGTH
+								+ META_ID] == me))
+					recType[j] = -1;
+			}
+		}
 
-			return true;
-		} else {
-			return false;
+		if (recCount == recStart.length)
+			growSendQueue();
+		int r = recCount++;
+		recStart[r] = c;
+		recLen[r] = RECORD_HEADER_LENGTH + len;
+		recType[r] = type;
+		recPriority[r] = bType.priority;
+		recRound[r] = br == null ? 0 : br.curRound;
+		recScope[r] = bType.scope;
+		recAnchor[r] = -1;
+		anchorPending = false;
+
+		buf[c] = chan;
+		buf[c + 1] = typeChar;
+		buf[c + 2] = (char) len;
+		sendLen = c + RECORD_HEADER_LENGTH;
+	}
+
+	private void growSendQueue() {
+		int n = recStart.length * 2;
+		recStart = Arrays.copyOf(recStart, n);
+		recLen = Arrays.copyOf(recLen, n);
+		recType = Arrays.copyOf(recType, n);
+		recPriority = Arrays.copyOf(recPriority, n);
+		recRound = Arrays.copyOf(recRound, n);
+		recScope = Arrays.copyOf(recScope, n);
+		recAnchor = Arrays.copyOf(recAnchor, n);
+	}
+
+	//Drops sent, superseded and stale records and slides the survivors
+	// to the front of the send buffer.
+	private void compactSendQueue(int minRound) {
+		char[] buf = sendBuf;
+		int c = METADATA_LENGTH;
+		int kept = 0;
+		for (int j = 0; j < recCount; j++) {
+			if (recType[j] < 0 || recRound[j] < minRound)
+				continue;
+			int len = recLen[j];
+			if (recStart[j] != c)
+				System.arraycopy(buf, recStart[j], buf, c, len);
+			recStart[kept] = c;
+			recLen[kept] = len;
+			recType[kept] = recType[j];
+			recPriority[kept] = recPriority[j];
+			recRound[kept] = recRound[j];
+			recScope[kept] = recScope[j];
+			recAnchor[kept] = recAnchor[j];
+			kept++;
+			c += len;
 		}
+		recCount = kept;
+		sendLen = c;
 	}
 
-	//Removes a channel from a robot
-	public boolean removeChannel(BroadcastChannel chn) {
-		int pos = findChannel(chn);
-		if (pos >= 0) {
-			int oldlen = boundChannelHeaders.length;
-			String[] newChans = new String[oldlen - 1];
-			System.arraycopy(boundChannelHeaders, 0, newChans, 0, pos);
-			System.arraycopy(boundChannelHeaders, pos + 1, newChans, pos,
-					oldlen - pos - 1);
-			boundChannelHeaders = newChans;
-			return true;
+	//How many chars of broadcast this robot can afford right now, spending
+	// at most the given share of its flux.
+	private int charBudget(double share) {
+		double flux = br.rc.getFlux() * share
+				- GameConstants.BROADCAST_FIXED_COST;
+		if (flux <= 0)
+			return 0;
+		// strings are billed per byte, two bytes per char
+		double chars = flux / (2 * GameConstants.BROADCAST_COST_PER_BYTE);
+		int wanted = sendLen
+				+ (ackCount > 0 ? RECORD_HEADER_LENGTH + 2 * ackCount : 0);
+		return chars > wanted ? wanted : (int) chars;
+	}
 
-		} else {
+	//Is it worth broadcasting this round?  Records of a type with a batch
+	// delay are held back until their deadline, or until enough of them
+	// have queued up to spread the metadata and signature cost over.
+	private boolean batchReady() {
+		int round = br.curRound;
+		int held = 0;
+		for (int j = recCount; --j >= 0;) {
+			int t = recType[j];
+			if (t < 0)
+				continue;
+			if (round - recRound[j] >= BroadcastType.decode((char) t).batchDelay)
+				return true;
+			held += recLen[j];
+		}
+		return held >= BATCH_FLUSH_CHARS;
+	}
+
+	//Should the critical message with this content key go out this round?
+	// A new key starts a new message at the base interval.  After that
+	// each repeat doubles the interval if enough allies acked the last one.
+	public boolean criticalDue(BroadcastType bType, int content, int interval) {
+		int t = bType.ordinal();
+		int round = br.curRound;
+		if (critSeq[t] < 0 || content != critContent[t]) {
+			critSeq[t] = critNextSeq;
+			critNextSeq = (critNextSeq + 1) & (CRIT_SEQ_COUNT - 1);
+			critContent[t] = content;
+			critInterval[t] = interval;
+		} else if (round < critDue[t]) {
 			return false;
+		} else if (critAcks[t] >= CRIT_ACKS_WANTED
+				&& critInterval[t] < CRIT_MAX_INTERVAL) {
+			critInterval[t] *= 2;
 		}
+		critAcks[t] = 0;
+		critDue[t] = round + critInterval[t];
+		return true;
 	}
 
-	//The next broadcast will have a wakeup note attached.
-	public void sendWakeupCall() {
-		shouldSendWakeup = true;
+	//Remembers to ack a critical message from another robot.  Slots run
+	// out only in very busy rounds, and the message will be repeated.
+	private void noteCritical(int id, int typeChar) {
+		if (id == (br == null ? 0 : br.myID))
+			return;
+		int bit = 1 << ((typeChar >> 8) & (CRIT_SEQ_COUNT - 1));
+		for (int j = ackCount; --j >= 0;) {
+			if (ackIDs[j] == id) {
+				ackBits[j] |= bit;
+				return;
+			}
+		}
+		if (ackCount < ACK_SLOTS) {
+			ackIDs[ackCount] = id;
+			ackBits[ackCount++] = bit;
+		}
 	}
 
-	//Queues a 15-bit unsigned short for broadcasting.
+	//Counts the sender of an ACK payload as an acker of each of our
+	// messages it acks, unless it already is one.
+	private void receiveAcks(String data, int start, int len) {
+		int me = br == null ? 0 : br.myID;
+		int sender = data.charAt(META_ID);
+		for (int k = start + len - 2; k >= start; k -= 2) {
+			if (data.charAt(k) != me)
+				continue;
+			int bits = data.charAt(k + 1);
+			for (int t = critSeq.length; --t >= 0;) {
+				int n = critAcks[t];
+				if (critSeq[t] < 0 || (bits & 1 << critSeq[t]) == 0
+						|| n >= CRIT_ACKS_WANTED)
+					continue;
+				int[] ids = critAckers[t];
+				boolean counted = false;
+				for (int j = n; --j >= 0;) {
+					if (ids[j] == sender)
+						counted = true;
+				}
+				if (!counted) {
+					ids[n] = sender;
+					critAcks[t] = n + 1;
+				}
+			}
+		}
+	}
+
+	//Queues a 16-bit unsigned short for broadcasting.
+	//
+	//Every send method also takes an int mask of BroadcastChannel bits in
+	//place of the channel, reaching all of them with a single record.
 
 	public void sendUShort(BroadcastChannel bChan, BroadcastType bType, int data) {
-		sendUShort(bChan.chanHeader + bType.header_c, data);
+		sendUShort(bChan.mask, bType, data);
 	}
 
-	private void sendUShort(String header, int data) {
-		msgContainer.append(header + (char) data);
+	public void sendUShort(int chanMask, BroadcastType bType, int data) {
+		writeHeader(chanMask, bType, 1);
+		sendBuf[sendLen++] = (char) data;
 	}
 
 	//Decode unsigned short
-	public static int decodeShort(StringBuilder msg) {
+	public static int decodeShort(MessageView msg) {
 		return msg.charAt(0);
 	}
 
 	//Send MapLocation to a unit
 	public void sendMapLoc(BroadcastChannel bChan, BroadcastType bType,
 			MapLocation loc) {
-		sendMapLoc(bChan.chanHeader.concat(bType.header_s), loc);
+		sendMapLoc(bChan.mask, bType, loc);
 	}
 
-	private void sendMapLoc(String header, MapLocation loc) {
-		msgContainer.append(header + (char) loc.x + (char) loc.y);
+	public void sendMapLoc(int chanMask, BroadcastType bType, MapLocation loc) {
+		writeHeader(chanMask, bType, 2);
+		char[] buf = sendBuf;
+		buf[sendLen] = (char) loc.x;
+		buf[sendLen + 1] = (char) loc.y;
+		sendLen += 2;
 	}
 
-	public static MapLocation decodeMapLoc(StringBuilder msg) {
+	public static MapLocation decodeMapLoc(MessageView msg) {
 		return new MapLocation(msg.charAt(0), msg.charAt(1));
 	}
 
@@ -157,75 +542,99 @@ public class BroadcastSystem {
 	//Sends an array of unsigned integers.  
 	public void sendUShorts(BroadcastChannel bChan, BroadcastType bType,
 			int[] ints) {
-		sendUShorts(bChan.chanHeader.concat(bType.header_s), ints);
+		sendUShorts(bChan.mask, bType, ints);
 	}
 
-	private void sendUShorts(String header, int[] ints) {
-		for (int i : ints) {
-			header = header.concat(String.valueOf((char) i));
-		}
-		msgContainer.append(header.concat(TERMINATOR_S));
+	public void sendUShorts(int chanMask, BroadcastType bType, int[] ints) {
+		writeHeader(chanMask, bType, ints.length);
+		writeUShorts(ints);
+	}
 
+	private void writeUShorts(int[] ints) {
+		char[] buf = sendBuf;
+		int c = sendLen;
+		for (int i = 0; i < ints.length; i++) {
+			buf[c++] = (char) ints[i];
+		}
+		sendLen = c;
 	}
 
 	//Send a raw string over a channel.
 	public void sendRaw(BroadcastChannel bChan, BroadcastType bType, String data) {
-		msgContainer.append(bChan.chanHeader.concat(bType.header_s)
-				.concat(data));
+		sendRaw(bChan.mask, bType, data);
+	}
+
+	public void sendRaw(int chanMask, BroadcastType bType, String data) {
+		int len = data.length();
+		writeHeader(chanMask, bType, len);
+		data.getChars(0, len, sendBuf, sendLen);
+		sendLen += len;
 	}
 
 	//Decode unsigned integer
-	public static int[] decodeUShorts(StringBuilder msg) {
-		int end = msg.indexOf(TERMINATOR_S);
-		int[] ints = new int[end];
+	public static int[] decodeUShorts(MessageView msg) {
+		String data = msg.data;
+		int off = msg.offset;
+		int[] ints = new int[msg.length];
 
-		for (int i = end; --i >= 0;) {
-			ints[i] = msg.charAt(i);
+		for (int i = ints.length; --i >= 0;) {
+			ints[i] = data.charAt(off + i);
 		}
 		return ints;
 	}
 
 	//Look at timestamp
 	// TODO: Decide if outdated info?
-	public static int decodeSenderTimestamp(StringBuilder msg) {
-		return msg.charAt(msg.indexOf(METADATA_S) + 1);
+	public static int decodeSenderTimestamp(MessageView msg) {
+		return msg.data.charAt(msg.metaOffset + META_ROUND);
 	}
 
 	//Return/decode robot id
-	public static int decodeSenderID(StringBuilder msg) {
-		return msg.charAt(msg.indexOf(METADATA_S) + 2);
+	public static int decodeSenderID(MessageView msg) {
+		return msg.data.charAt(msg.metaOffset + META_ID);
 	}
 
 	//Decode origin
-	public static MapLocation decodeSenderLoc(StringBuilder msg) {
-		int metaIdx = msg.indexOf(METADATA_S);
-		return new MapLocation(msg.charAt(metaIdx + 3), msg.charAt(metaIdx + 4));
+	public static MapLocation decodeSenderLoc(MessageView msg) {
+		String data = msg.data;
+		int metaIdx = msg.metaOffset;
+		return new MapLocation(data.charAt(metaIdx + META_X),
+				data.charAt(metaIdx + META_Y));
 	}
 
-	//A costly method for sending unsigned 30-bit integers.  
-	// Preferable to use the 15-bit integer method.
+	//Sends 32-bit integers, two chars each.
+	// Preferable to use the 16-bit method when values fit.
 	public void sendUInts(BroadcastChannel bChan, BroadcastType bType,
 			int[] ints) {
-		sendUInts(bChan.chanHeader + bType.header_c, ints);
+		sendUInts(bChan.mask, bType, ints);
 	}
 
-	private void sendUInts(String header, int[] ints) {
-		for (int i : ints) {
-			header = header.concat(String.valueOf((char) (i & 0x00007FFF)))
-					.concat( // LO BITS
-					String.valueOf((char) ((i & 0x3FFF8000) >> 15))); // HI BITS
+	public void sendUInts(int chanMask, BroadcastType bType, int[] ints) {
+		writeHeader(chanMask, bType, ints.length * 2);
+		writeUInts(ints);
+	}
+
+	private void writeUInts(int[] ints) {
+		char[] buf = sendBuf;
+		int c = sendLen;
+		for (int i = 0; i < ints.length; i++) {
+			int v = ints[i];
+			buf[c++] = (char) v; // LO BITS
+			buf[c++] = (char) (v >>> 16); // HI BITS
 		}
-		msgContainer.append(header.concat(TERMINATOR_S));
+		sendLen = c;
 	}
 
-	//Decode 30-bit integer
-	public static int[] decodeInts(StringBuilder msg) {
-		int num = msg.indexOf(TERMINATOR_S) / 2;
+	//Decode 32-bit integer
+	public static int[] decodeInts(MessageView msg) {
+		String data = msg.data;
+		int off = msg.offset;
+		int num = msg.length / 2;
 		int[] ints = new int[num];
 
 		for (int i = num; --i >= 0;) {
-			ints[i] = (msg.charAt(i * 2) + // lo bits
-			(msg.charAt(i * 2 + 1) << 15)); // hi bits
+			ints[i] = (data.charAt(off + i * 2) | // lo bits
+			(data.charAt(off + i * 2 + 1) << 16)); // hi bits
 		}
 
 		return ints;
@@ -234,32 +643,189 @@ public class BroadcastSystem {
 	//Queue MapLocation(s)
 	public void sendMapLocs(BroadcastChannel bChan, BroadcastType bType,
 			MapLocation[] locs) {
-		sendMapLocs(bChan.chanHeader + bType.header_c, locs);
+		sendMapLocs(bChan.mask, bType, locs);
+	}
+
+	public void sendMapLocs(int chanMask, BroadcastType bType,
+			MapLocation[] locs) {
+		int len = 0;
+		for (int i = locs.length; --i >= 0;)
+			len += relLocLength(locs[i]);
+		writeHeader(chanMask, bType, len);
+		anchorRecord(bType);
+		for (int i = 0; i < locs.length; i++)
+			writeRelLoc(locs[i]);
+	}
+
+	//Decode MapLocation(s)
+	public static MapLocation[] decodeMapLocs(MessageView msg) {
+		// calc number of locations
+		int num = 0;
+		for (int i = 0; i < msg.length; i += relLocLength(msg, i))
+			num++;
+
+		MapLocation[] locs = new MapLocation[num];
+
+		for (int i = 0, n = 0; n < num; i += relLocLength(msg, i))
+			locs[n++] = decodeRelLoc(msg, i);
+		return locs;
 	}
 
-	private void sendMapLocs(String header, MapLocation[] locs) {
-		msgContainer.append(header);
+	//Opens a record to be filled field by field with the put methods,
+	// following bType.layout, and closed with end().  Receivers read the
+	// fields back in the same order with the MessageView read methods.
+	public void begin(BroadcastChannel bChan, BroadcastType bType) {
+		begin(bChan.mask, bType);
+	}
 
-		for (MapLocation l : locs) {
-			msgContainer.append((char) l.x);
-			msgContainer.append((char) l.y);
+	public void begin(int chanMask, BroadcastType bType) {
+		writeHeader(chanMask, bType, 0);
+		anchorRecord(bType);
+	}
+
+	//Appends a FIELD_USHORT to the open record
+	public void putUShort(int v) {
+		reserve(1);
+		sendBuf[sendLen++] = (char) v;
+	}
+
+	//Appends a FIELD_UINT to the open record
+	public void putUInt(int v) {
+		reserve(2);
+		sendBuf[sendLen] = (char) v;
+		sendBuf[sendLen + 1] = (char) (v >>> 16);
+		sendLen += 2;
+	}
+
+	//Appends a FIELD_LOC to the open record
+	public void putLoc(MapLocation loc) {
+		putLoc(loc.x, loc.y);
+	}
+
+	public void putLoc(int x, int y) {
+		reserve(3);
+		writeRelLoc(x, y);
+	}
+
+	//Closes the record opened by begin(), filling in its length
+	public void end() {
+		int r = recCount - 1;
+		int start = recStart[r];
+		sendBuf[start + 2] = (char) (sendLen - start - RECORD_HEADER_LENGTH);
+		recLen[r] = sendLen - start;
+	}
+
+	//Queues radar reports as 3 chars per robot instead of 5:
+	//
+	//   enemy: [id] [loc] [strength << 8 | distance]
+	//   own:   [id] [loc] [INFO_OWN | type << 8 | strength]
+	//
+	//info holds RadarSystem's (id, x, y, strength, distance) tuples, with
+	//own info marked by a strength over 9000 and the type in place of the
+	//distance.  Strengths cap at 127 and distances at 254.
+	public void sendEnemyInfo(BroadcastChannel bChan, BroadcastType bType,
+			int[] info) {
+		begin(bChan, bType);
+		for (int n = 0; n < info.length; n += 5) {
+			putUShort(info[n]);
+			putLoc(info[n + 1], info[n + 2]);
+			int strength = info[n + 3];
+			int stats;
+			if (strength > 9000) {
+				strength -= 10000;
+				stats = INFO_OWN | info[n + 4] << 8
+						| (strength > 0xFF ? 0xFF : strength);
+			} else {
+				int dist = info[n + 4];
+				stats = (strength > 0x7F ? 0x7F : strength) << 8
+						| (dist >= INFO_NO_DIST ? INFO_NO_DIST : dist);
+			}
+			putUShort(stats);
+		}
+		end();
+	}
+
+	//Unpacks sendEnemyInfo back into (id, x, y, strength, distance) tuples,
+	// an unknown distance coming back as 55555.
+	public static int[] decodeEnemyInfo(MessageView msg) {
+		int num = 0;
+		for (int i = 0; i < msg.length; i += 2 + relLocLength(msg, i + 1))
+			num++;
+
+		int[] info = new int[num * 5];
+		for (int i = 0, n = 0; n < info.length; n += 5) {
+			info[n] = msg.charAt(i);
+			MapLocation loc = decodeRelLoc(msg, i + 1);
+			info[n + 1] = loc.x;
+			info[n + 2] = loc.y;
+			i += 1 + relLocLength(msg, i + 1);
+			int stats = msg.charAt(i++);
+			if ((stats & INFO_OWN) != 0) {
+				info[n + 3] = 10000 + (stats & 0xFF);
+				info[n + 4] = (stats >> 8) & 0x7F;
+			} else {
+				info[n + 3] = stats >> 8;
+				int dist = stats & 0xFF;
+				info[n + 4] = dist == INFO_NO_DIST ? 55555 : dist;
+			}
 		}
+		return info;
+	}
 
-		msgContainer.append(TERMINATOR_C);
+	//The last queued record holds locations relative to where we stand
+	// now, unless an origin block carries its own anchor.  It is only
+	// anchored once it writes a location, so records without any can still
+	// go out after we move.
+	private void anchorRecord(BroadcastType bType) {
+		anchorPending = bType.relayTTL == 0 && br != null;
 	}
 
-	//Decode MapLocation(s)
-	public static MapLocation[] decodeMapLocs(StringBuilder msg) {
+	//Chars needed for a compact location
+	private int relLocLength(MapLocation loc) {
+		return relLocLength(loc.x, loc.y);
+	}
 
-		// calc number of locations
-		int num = msg.indexOf(TERMINATOR_S) / 2;
+	private int relLocLength(int x, int y) {
+		int dx = x - (br == null ? 0 : br.curLoc.x);
+		int dy = y - (br == null ? 0 : br.curLoc.y);
+		return dx < -127 || dx > 127 || dy < -127 || dy > 127 ? 3 : 1;
+	}
 
-		MapLocation[] locs = new MapLocation[num];
+	static int relLocLength(MessageView msg, int i) {
+		return msg.charAt(i) >> 8 == REL_ESCAPE ? 3 : 1;
+	}
 
-		for (int i = 0; i < num; i++) {
-			locs[i] = new MapLocation(msg.charAt(i * 2), msg.charAt(i * 2 + 1));
+	private void writeRelLoc(MapLocation loc) {
+		writeRelLoc(loc.x, loc.y);
+	}
+
+	private void writeRelLoc(int x, int y) {
+		if (anchorPending) {
+			recAnchor[recCount - 1] = locToInt(br.curLoc);
+			anchorPending = false;
 		}
-		return locs;
+		char[] buf = sendBuf;
+		int dx = x - (br == null ? 0 : br.curLoc.x);
+		int dy = y - (br == null ? 0 : br.curLoc.y);
+		if (dx < -127 || dx > 127 || dy < -127 || dy > 127) {
+			buf[sendLen] = (char) (REL_ESCAPE << 8);
+			buf[sendLen + 1] = (char) x;
+			buf[sendLen + 2] = (char) y;
+			sendLen += 3;
+		} else {
+			buf[sendLen++] = (char) ((dx & 0xFF) << 8 | (dy & 0xFF));
+		}
+	}
+
+	//Decodes the compact location at payload index i
+	public static MapLocation decodeRelLoc(MessageView msg, int i) {
+		int c = msg.charAt(i);
+		if (c >> 8 == REL_ESCAPE)
+			return new MapLocation(msg.charAt(i + 1), msg.charAt(i + 2));
+		String data = msg.data;
+		int meta = msg.metaOffset;
+		return new MapLocation(data.charAt(meta + META_X) + (byte) (c >> 8),
+				data.charAt(meta + META_Y) + (byte) c);
 	}
 
 	//Add force flag
@@ -271,42 +837,73 @@ public class BroadcastSystem {
 		}
 	}
 
+	//Packs as much of the send queue as the flux budget allows into one
+	// broadcast, highest priority first.  Whatever doesn't fit stays
+	// queued for the next round.
 	public void sendAll() {
 
 		// normal message sending
-		if (msgContainer.length() > 0 && !br.rc.hasBroadcasted()) {
-
-			// append message metadata
-			msgContainer.append(generateMetadata());
-
-			// build message
-			Message m = new Message();
-			m.strings = new String[] { msgContainer.toString() };
-
-			// build wakeup call
-			if (shouldSendWakeup) {
-				m.ints = new int[3];
-				m.ints[2] = locToInt(br.curLoc);
-				shouldSendWakeup = false;
-			} else {
-				m.ints = new int[2];
+		if (recCount > 0 && !br.rc.hasBroadcasted() && batchReady()) {
+
+			int budget = charBudget(RADIO_FLUX_FRACTION);
+			int critBudget = charBudget(CRITICAL_FLUX_FRACTION);
+			if (outBuf.length < critBudget)
+				outBuf = new char[Math.max(outBuf.length * 2, critBudget)];
+			char[] out = outBuf;
+			char[] buf = sendBuf;
+			int used = METADATA_LENGTH;
+			int scope = 0;
+			int here = locToInt(br.curLoc);
+			boolean heldBack = false;
+
+			for (int p = BroadcastType.MAX_PRIORITY; p >= 0; p--) {
+				for (int j = 0; j < recCount; j++) {
+					if (recType[j] < 0 || recPriority[j] != p)
+						continue;
+					if (recAnchor[j] != -1 && recAnchor[j] != here) {
+						// encoded against a spot we've since left
+						recType[j] = -1;
+						continue;
+					}
+					int len = recLen[j];
+					if (used + len > (BroadcastType.decode((char) recType[j])
+							.critical ? critBudget : budget)) {
+						heldBack = true;
+						continue;
+					}
+					System.arraycopy(buf, recStart[j], out, used, len);
+					used += len;
+					typeSentCount[recType[j]]++;
+					recType[j] = -1;
+					if (recScope[j] > scope)
+						scope = recScope[j];
+				}
 			}
-
-			// sign message
-			m.ints[0] = teamkey;
-			m.ints[1] = hashMessage(msgContainer);
-
-			try {
-				br.rc.broadcast(m);
-			} catch (GameActionException e) {
-				// System.out.println("Broadcasting threw an error.");
-				// e.printStackTrace();
+			compactSendQueue(0);
+
+			// piggy-back acks on real traffic, if they fit.  They reach as
+			// far as the traffic they ride with and never widen its scope.
+			// When low flux held all of it back they go out on their own.
+			int ackLen = RECORD_HEADER_LENGTH + 2 * ackCount;
+			if (ackCount > 0 && (used > METADATA_LENGTH || heldBack)
+					&& used + ackLen <= critBudget) {
+				if (used == METADATA_LENGTH)
+					scope = BroadcastType.ACK.scope;
+				out[used] = (char) BroadcastChannel.ALL.mask;
+				out[used + 1] = BroadcastType.ACK.header_c;
+				out[used + 2] = (char) (ackLen - RECORD_HEADER_LENGTH);
+				for (int j = 0, c = used + RECORD_HEADER_LENGTH; j < ackCount; j++) {
+					out[c++] = (char) ackIDs[j];
+					out[c++] = (char) ackBits[j];
+				}
+				used += ackLen;
+				ackCount = 0;
 			}
 
-			// wipe container
-			msgContainer = new StringBuilder();
-
-			return;
+			if (used > METADATA_LENGTH) {
+				out[META_SCOPE] = (char) scope;
+				broadcast(out, used);
+			}
 		}
 
 		// build a pure wakeup call if we had nothing to send
@@ -325,17 +922,111 @@ public class BroadcastSystem {
 
 	}
 
+	//Packs the whole send queue into a signed message as robot id would
+	// send it in the given round, and empties the queue.  Goes around the
+	// RobotController, flux budget and batching, for tests and
+	// BroadcastBenchmark only.
+	Message drain(int round, int id) {
+		char[] buf = sendBuf;
+		int scope = 0;
+		for (int j = 0; j < recCount; j++) {
+			if (recType[j] >= 0 && recScope[j] > scope)
+				scope = recScope[j];
+		}
+		compactSendQueue(0);
+		buf[META_ROUND] = (char) round;
+		buf[META_ID] = (char) id;
+		buf[META_X] = 0;
+		buf[META_Y] = 0;
+		buf[META_SCOPE] = (char) scope;
+		String data = new String(buf, 0, sendLen);
+		flushSendQueue();
+
+		Message m = new Message();
+		m.strings = new String[] { data };
+		m.ints = new int[] { teamkey, hashMessage(data) };
+		return m;
+	}
+
+	//Signs and broadcasts the first len chars of out, whose metadata
+	// block is filled in here.
+	private void broadcast(char[] out, int len) {
+		// fill in the metadata block reserved at the front
+		writeMetadata(out);
+
+		// build message, the only String made for this round's traffic
+		String data = new String(out, 0, len);
+		Message m = new Message();
+		m.strings = new String[] { data };
+
+		// build wakeup call
+		if (shouldSendWakeup) {
+			m.ints = new int[3];
+			m.ints[2] = locToInt(br.curLoc);
+			shouldSendWakeup = false;
+		} else {
+			m.ints = new int[2];
+		}
+
+		// sign message
+		m.ints[0] = teamkey;
+		m.ints[1] = hashMessage(data);
+
+		try {
+			br.rc.broadcast(m);
+		} catch (GameActionException e) {
+			// System.out.println("Broadcasting threw an error.");
+			// e.printStackTrace();
+		}
+	}
+
 	//Purge message queue
 	public void flushIncomingQueue() {
 		br.rc.getAllMessages();
+		for (int i = inboxHead; i < inboxTail; i++)
+			inboxData[i] = null;
+		inboxHead = inboxTail = 0;
+		inboxResume = METADATA_LENGTH;
+	}
+
+	//Is a record of this type waiting in the send queue?
+	public boolean isQueued(BroadcastType bType) {
+		int t = bType.ordinal();
+		for (int j = recCount; --j >= 0;) {
+			if (recType[j] == t)
+				return true;
+		}
+		return false;
+	}
+
+	//How many records of this type have gone out so far.  A queued record
+	// that this doesn't count when it is no longer queued was dropped.
+	public int sentCount(BroadcastType bType) {
+		return typeSentCount[bType.ordinal()];
 	}
 
 	//Purge sending queue
 	public void flushSendQueue() {
-		msgContainer = new StringBuilder();
+		recCount = 0;
+		sendLen = METADATA_LENGTH;
+	}
+
+	//Drop queued records that have waited too long to be sent
+	public void expireSendQueue() {
+		if (recCount > 0)
+			compactSendQueue(br.curRound - SEND_QUEUE_MAX_AGE);
 	}
 
-	public int hashMessage(StringBuilder msg) {
+	//Signature of a broadcast string.  String.hashCode is one pass over
+	// the original chars, allocates nothing and is cached on the String,
+	// so verifying costs a single library call per message.
+	public int hashMessage(String msg) {
+		return (msg.hashCode() + teamkey) * HASH_MULTIPLIER;
+	}
+
+	//The old signature: rotate the string about its midpoint and hash the
+	// copy.  Kept so BroadcastBenchmark has a baseline.
+	static int legacyHashMessage(String msg, int teamkey) {
 		String tmp = new String();
 
 		int endpoint = msg.length();
@@ -343,75 +1034,316 @@ public class BroadcastSystem {
 
 		return tmp.concat(msg.substring(midpoint, endpoint))
 				.concat((msg.substring(0, midpoint))).hashCode()
-				* this.teamkey;
+				* teamkey;
+	}
+
+	//Fills in the metadata block at the front of an outgoing buffer.
+	private void writeMetadata(char[] buf) {
+		buf[META_ROUND] = (char) Clock.getRoundNum();
+		buf[META_ID] = (char) br.myID;
+		buf[META_X] = (char) br.curLoc.x;
+		buf[META_Y] = (char) br.curLoc.y;
+	}
 
+	//A complete broadcast carrying one empty record, for hand built
+	// messages sent outside the normal queue.
+	public String generateSignal(BroadcastChannel bChan, BroadcastType bType) {
+		return new String(new char[] { (char) Clock.getRoundNum(),
+				(char) br.myID, (char) br.curLoc.x, (char) br.curLoc.y,
+				(char) bType.scope, (char) bChan.mask, bType.header_c,
+				(char) 0 });
 	}
 
-	public String generateMetadata() {
-		return METADATA_S.concat(String.valueOf((char) Clock.getRoundNum()))
-				.concat(String.valueOf((char) br.myID))
-				.concat(String.valueOf((char) br.curLoc.x))
-				.concat(String.valueOf((char) br.curLoc.y));
+	//Squared distance from here to the sender of a broadcast, read straight
+	// out of its metadata.
+	private int senderDistance(String data) {
+		int dx = data.charAt(META_X) - (br == null ? 0 : br.curLoc.x);
+		int dy = data.charAt(META_Y) - (br == null ? 0 : br.curLoc.y);
+		return dx * dx + dy * dy;
 	}
 
 	public void receive() throws GameActionException {
 
 		// check for active listeners
-		if (boundChannelHeaders.length > 0) {
+		if (listenMask != 0)
+			receive(br.rc.getAllMessages());
+	}
 
-			// Message Receive Loop
-			StringBuilder sb = new StringBuilder();
-			for (Message m : br.rc.getAllMessages()) {
+	//Verifies and dispatches one round's worth of received messages.
+	// Split from receive() so BroadcastBenchmark can feed it traffic.
+	void receive(Message[] msgs) throws GameActionException {
+		receive(msgs, Clock.getRoundNum());
+	}
 
-				int[] mints;
-				String data;
+	//As receive(msgs), judging staleness as if it were round now, so tests
+	// can play traffic that is rounds old.
+	void receive(Message[] msgs, int now) throws GameActionException {
+		int num = msgs.length < MAX_INSPECTED_PER_TURN ? msgs.length
+				: MAX_INSPECTED_PER_TURN;
+		int round = Clock.getRoundNum();
+		int byteLimit = Clock.getBytecodeNum() + RECEIVE_BYTECODE_CEILING;
+		int verifyLimit = byteLimit - DISPATCH_BYTECODE_RESERVE;
+		int[] shapes = enemyShapes;
+
+		// Message Receive Loop
+		for (int k = 0; k < num; k++) {
+
+			// verify budget spent, the rest is dropped
+			if (Clock.getBytecodeNum() > verifyLimit
+					|| Clock.getRoundNum() != round)
+				break;
+
+			Message m = msgs[k];
+			int[] mints = m.ints;
+			String[] mstrings = m.strings;
+			String data;
+
+			// repeat of an enemy shape we've already turned away, unless
+			// it carries our key and only collides with one; still sampled
+			// for the scout until the enemy team is known
+			int shape = shapeOf(m);
+			if (shapes[shape & (SHAPE_CACHE_SIZE - 1)] == shape
+					&& (mints == null || mints.length == 0 || mints[0] != teamkey)) {
+				memoEnemy(m);
+				continue;
+			}
 
-				// ints validity check
-				if ((mints = m.ints) == null || mints.length < 2
-						|| mints.length > 3) {
-					memoEnemy(m);
-					continue;
-				}
-				if (m.strings == null || m.strings.length != 1) {
-					memoEnemy(m);
-					continue;
-				}
-				if (m.locations != null) {
-					memoEnemy(m);
-					continue;
-				}
+			// fast reject: ints shape and team key, before any String
+			if (mints == null || mints.length < 2 || mints.length > 3
+					|| mints[0] != teamkey) {
+				rejectEnemy(m, shape);
+				continue;
+			}
+			if (mstrings == null) {
+				// our own bare wakeup call, meant for hibernators
+				continue;
+			}
+			if (mstrings.length != 1 || m.locations != null) {
+				rejectEnemy(m, shape);
+				continue;
+			}
 
-				// team check
-				if (mints[0] != teamkey) {
-					memoEnemy(m);
-					continue;
-				}
+			// length check, then hash check
+			if ((data = mstrings[0]) == null
+					|| data.length() < METADATA_LENGTH
+							+ RECORD_HEADER_LENGTH) {
+				memoEnemy(m);
+				continue;
+			}
 
-				// hash check
-				if ((data = m.strings[0]) == null) {
-					memoEnemy(m);
-					continue;
-				}
-				if (mints[1] != hashMessage(new StringBuilder(data))) {
-					memoEnemy(m);
-					continue;
-				}
+			// scope check, before paying for the hash
+			if (senderDistance(data) > data.charAt(META_SCOPE))
+				continue;
 
-				sb.append(data);
+			if (mints[1] != hashMessage(data)) {
+				memoEnemy(m);
+				continue;
 			}
 
-			// Message Process Loop
-			int i = 0;
-			for (String addr : boundChannelHeaders) {
-				while ((i = sb.indexOf(addr, i)) != -1) {
-					br.processMessage(BroadcastType.decode(sb.charAt(i + 2)),
-							new StringBuilder(sb.substring(i + 3)));
-					i++;
+			enqueue(data);
+		}
+
+		processInbox(byteLimit, now);
+	}
+
+	//Files a verified broadcast into the inbox by its timestamp.  When the
+	// inbox is full the oldest waiting broadcast is dropped.
+	private void enqueue(String data) {
+		String[] datas = inboxData;
+		int[] times = inboxTime;
+		int[] urgent = inboxUrgent;
+		if (inboxTail == INBOX_SIZE) {
+			if (inboxHead == 0) {
+				// full: drop the oldest
+				inboxHead = 1;
+				inboxResume = METADATA_LENGTH;
+			}
+			int n = inboxTail - inboxHead;
+			System.arraycopy(datas, inboxHead, datas, 0, n);
+			System.arraycopy(times, inboxHead, times, 0, n);
+			System.arraycopy(urgent, inboxHead, urgent, 0, n);
+			for (int i = n; i < inboxTail; i++)
+				datas[i] = null;
+			inboxHead = 0;
+			inboxTail = n;
+		}
+
+		// insertion from the back, arrivals are nearly always the newest
+		int time = data.charAt(META_ROUND);
+		int i = inboxTail++;
+		int stop = inboxHead + (inboxResume > METADATA_LENGTH ? 1 : 0);
+		while (i > stop && times[i - 1] > time) {
+			datas[i] = datas[i - 1];
+			times[i] = times[i - 1];
+			urgent[i] = urgent[i - 1];
+			i--;
+		}
+		datas[i] = data;
+		times[i] = time;
+		urgent[i] = METADATA_LENGTH;
+	}
+
+	//Dispatches buffered broadcasts until the bytecode count passes
+	// byteLimit, the end of the budget receive() started.  The urgent
+	// records of every broadcast go first, then the rest, each in
+	// timestamp order.  A broadcast cut off mid way resumes at the same
+	// record next turn.
+	private void processInbox(int byteLimit, int now)
+			throws GameActionException {
+		int[] urgent = inboxUrgent;
+		for (int h = inboxHead; h < inboxTail; h++) {
+			if (urgent[h] < 0)
+				continue;
+			if (now - inboxTime[h] > BroadcastType.MAX_STALENESS) {
+				urgent[h] = -1;
+				continue;
+			}
+			urgent[h] = demultiplex(inboxData[h], urgent[h], now, byteLimit,
+					true);
+			if (urgent[h] >= 0)
+				return;
+		}
+		while (inboxHead < inboxTail) {
+			int h = inboxHead;
+			if (now - inboxTime[h] <= BroadcastType.MAX_STALENESS) {
+				inboxResume = demultiplex(inboxData[h], inboxResume, now,
+						byteLimit, false);
+				if (inboxResume >= 0)
+					return;
+			}
+			inboxData[h] = null;
+			inboxHead = h + 1;
+			inboxResume = METADATA_LENGTH;
+		}
+		inboxHead = inboxTail = 0;
+	}
+
+	//Walks one verified broadcast a single time from record offset i,
+	// handing each payload on a bound channel to the robot as a view into
+	// the original String.  Records carry their own length, so unbound ones
+	// are skipped unread, and records older than their type's staleness
+	// window or aimed at robots nearer the sender than we are are skipped
+	// too, as are records on the other side of URGENT_PRIORITY from the
+	// pass asked for.  Returns -1 once the broadcast is done, or the
+	// offset to resume from if the bytecode limit or the round ran out.
+	private int demultiplex(String data, int i, int round, int byteLimit,
+			boolean urgent) throws GameActionException {
+		int clock = Clock.getRoundNum();
+		int end = data.length();
+		int chans = listenMask;
+		MessageView v = view;
+		v.set(data, 0, 0, 0);
+		int age = round - decodeSenderTimestamp(v);
+		int dist = senderDistance(data);
+		while (i + RECORD_HEADER_LENGTH <= end) {
+			if (Clock.getBytecodeNum() > byteLimit
+					|| Clock.getRoundNum() != clock)
+				return i;
+			char chan = data.charAt(i);
+			int start = i + RECORD_HEADER_LENGTH;
+			int len = data.charAt(i + 2);
+			if (start + len > end)
+				return -1;
+			if ((chan & chans) != 0) {
+				char typeChar = data.charAt(i + 1);
+				BroadcastType type = BroadcastType.decode(typeChar);
+				MessageHandler h = handlers[type.ordinal()];
+				if ((type.priority >= URGENT_PRIORITY) != urgent) {
+					// left to the other pass
+				} else if (dist > type.scope || len < type.minLength) {
+					// out of range of this record, or too short for its
+					// layout
+				} else if (type.relayTTL == 0) {
+					if (age > type.staleness) {
+						// too old to act on
+					} else if (type == BroadcastType.ACK) {
+						receiveAcks(data, start, len);
+					} else {
+						if (typeChar > 0xFF)
+							noteCritical(data.charAt(META_ID), typeChar);
+						if (h != null) {
+							v.set(data, start, len, 0);
+							h.processMessage(type, v);
+						}
+					}
+				} else if (len >= RELAY_HEADER_LENGTH + type.minLength) {
+					dispatchRelayed(data, i, type, typeChar, h, round);
 				}
 			}
+			i = start + len;
+		}
+		return -1;
+	}
+
+	//Handles a relayed record at offset i the first time it is heard, and
+	// passes it on with one hop less if it has hops left.  Relaying doesn't
+	// depend on having a handler for it.
+	private void dispatchRelayed(String data, int i, BroadcastType type,
+			char typeChar, MessageHandler h, int round)
+			throws GameActionException {
+		int origin = i + RECORD_HEADER_LENGTH;
+		int id = data.charAt(origin + META_ID);
+		int sent = data.charAt(origin + META_ROUND);
+		if (round - sent > type.staleness)
+			return;
+		// acked to the originator, however many copies reach us
+		if (typeChar > 0xFF)
+			noteCritical(id, typeChar);
+		if (!markSeen(id, sent, type.header_c))
+			return;
+
+		int len = data.charAt(i + 2);
+		if (h != null) {
+			MessageView v = view;
+			v.set(data, origin + RELAY_HEADER_LENGTH, len
+					- RELAY_HEADER_LENGTH, origin);
+			h.processMessage(type, v);
+		}
+
+		int ttl = data.charAt(origin + RELAY_TTL) - 1;
+		if (ttl > 0) {
+			// never supersede: an old relay must not replace our own news
+			openRecord(data.charAt(i), type, typeChar, len, false);
+			data.getChars(origin, origin + len, sendBuf, sendLen);
+			sendBuf[sendLen + RELAY_TTL] = (char) ttl;
+			sendLen += len;
 		}
 	}
 
+	//Records a relayed record as handled.  Returns false if it already was.
+	private boolean markSeen(int id, int round, int type) {
+		int key = (id << 16) | round;
+		int slot = (id * 31 + round + type * 7) & (SEEN_CACHE_SIZE - 1);
+		if (seenKeys[slot] == key && seenTypes[slot] == type)
+			return false;
+		seenKeys[slot] = key;
+		seenTypes[slot] = type;
+		return true;
+	}
+
+	//Cheap structural fingerprint of a message: how many ints, strings
+	// and locations it has, and its first int.  Never zero.
+	private static int shapeOf(Message m) {
+		int[] mints = m.ints;
+		String[] mstrings = m.strings;
+		MapLocation[] mlocs = m.locations;
+		int shape = (mints == null ? 0 : mints.length + 1)
+				| (mstrings == null ? 0 : mstrings.length + 1) << 8
+				| (mlocs == null ? 0 : mlocs.length + 1) << 16;
+		if (mints != null && mints.length > 0)
+			shape = shape * 31 + mints[0];
+		return shape | 1;
+	}
+
+	//Remembers the shape of a message that failed the structure or team
+	// check so its repeats are dropped on sight.  Hash failures carry our
+	// key and are not remembered, or a forged copy could mute our team.
+	private void rejectEnemy(Message m, int shape) {
+		if (m.ints == null || m.ints.length == 0 || m.ints[0] != teamkey)
+			enemyShapes[shape & (SHAPE_CACHE_SIZE - 1)] = shape;
+		memoEnemy(m);
+	}
+
 	private void memoEnemy(Message m) {
 		// log message to match observation
 
@@ -436,44 +1368,76 @@ public class BroadcastSystem {
 		return (loc.x << 16) + loc.y;
 	}
 
+	//View of the first queued message, header stripped.  Test use only.
+	MessageView sentPayload() {
+		MessageView v = new MessageView();
+		v.set(new String(sendBuf, 0, sendLen), METADATA_LENGTH
+				+ RECORD_HEADER_LENGTH, sendLen - METADATA_LENGTH
+				- RECORD_HEADER_LENGTH, 0);
+		return v;
+	}
+
 	/**
 	 * Test code to ensure serialization / deserialization works
 	 */
-	public static void main(String args[]) {
+	public static void main(String args[]) throws GameActionException {
 		BroadcastSystem io = new BroadcastSystem();
 
 		int[] a;
 		a = new int[] { 555, 10000, 20000, 30000, 40000, 500000, 1073741823 };
 
-		io.sendUShorts("", a);
+		io.sendUShorts(BroadcastChannel.ALL, BroadcastType.NONE, a);
 		System.out.println((Arrays.toString(BroadcastSystem
-				.decodeUShorts(io.msgContainer))));
-		io.msgContainer = new StringBuilder();
+				.decodeUShorts(io.sentPayload()))));
+		io.flushSendQueue();
 
-		io.sendUInts("", a);
+		io.sendUInts(BroadcastChannel.ALL, BroadcastType.NONE, a);
 		System.out.println((Arrays.toString(BroadcastSystem
-				.decodeInts(io.msgContainer))));
-		io.msgContainer = new StringBuilder();
+				.decodeInts(io.sentPayload()))));
+		io.flushSendQueue();
 
 		MapLocation[] locs;
 		locs = new MapLocation[] { new MapLocation(3, 20),
 				new MapLocation(200, 234), new MapLocation(4, 9000) };
 
-		io.sendMapLocs("", locs);
+		io.sendMapLocs(BroadcastChannel.ALL, BroadcastType.NONE, locs);
+		System.out.println((Arrays.toString(BroadcastSystem
+				.decodeMapLocs(io.sentPayload()))));
+		io.flushSendQueue();
+
+		// own info, a near enemy, a far one with an unknown distance
+		a = new int[] { 101, 0, 0, 10043, 1, 202, -5, 7, 50, 16, 303, 300,
+				2, 300, 55555 };
+		io.sendEnemyInfo(BroadcastChannel.ALL, BroadcastType.NONE, a);
+		System.out.println(io.sendLen - METADATA_LENGTH
+				- RECORD_HEADER_LENGTH + " chars, was " + a.length);
 		System.out.println((Arrays.toString(BroadcastSystem
-				.decodeMapLocs(io.msgContainer))));
-		io.msgContainer = new StringBuilder();
+				.decodeEnemyInfo(io.sentPayload()))));
+		io.flushSendQueue();
+
+		// field by field, as laid out in a BroadcastType
+		io.begin(BroadcastChannel.ALL, BroadcastType.NONE);
+		io.putUShort(77);
+		io.putLoc(3, -4);
+		io.putUInt(500000);
+		io.end();
+		MessageView v = io.sentPayload();
+		System.out.println(v.length() + " chars: " + v.readUShort() + " "
+				+ v.readLoc() + " " + v.readUInt() + " " + v.hasMore());
+		io.flushSendQueue();
 
 		io.setChannels(new BroadcastChannel[] {});
-		System.out.println((Arrays.toString(io.boundChannelHeaders)));
+		System.out.println(Integer.toBinaryString(io.listenMask));
 		io.addChannel(BroadcastChannel.ALL);
-		System.out.println((Arrays.toString(io.boundChannelHeaders)));
+		io.addChannel(BroadcastChannel.SCOUTS);
+		System.out.println(Integer.toBinaryString(io.listenMask));
+		io.removeChannel(BroadcastChannel.ALL);
+		System.out.println(Integer.toBinaryString(io.listenMask));
 
 		// Test hashing
-		StringBuilder msg1 = new StringBuilder("abcdefg");
-		StringBuilder msg2 = new StringBuilder("woieruw");
-		StringBuilder msg3 = new StringBuilder(
-				"weoiruwaeral;sfaas;dlfjxc2#$@#$@#$");
+		String msg1 = "abcdefg";
+		String msg2 = "woieruw";
+		String msg3 = "weoiruwaeral;sfaas;dlfjxc2#$@#$@#$";
 		System.out.println(io.hashMessage(msg1));
 		System.out.println(io.hashMessage(msg1));
 		System.out.println(io.hashMessage(msg2));
@@ -488,6 +1452,89 @@ public class BroadcastSystem {
 
 		System.out.println(BroadcastType.decode(BroadcastType.NONE.header_c)
 				.toString());
+
+		// a hibernating robot's help call is dropped once it is stale, so
+		// each resend must carry the round it went out
+		final int[] heard = new int[1];
+		io.setChannels(BroadcastChannel.values());
+		io.registerHandler(BroadcastType.LOW_FLUX_HELP, new MessageHandler() {
+			public void processMessage(BroadcastType t, MessageView v) {
+				heard[0]++;
+			}
+		});
+		io.begin(BroadcastChannel.SCOUTS, BroadcastType.LOW_FLUX_HELP);
+		io.end();
+		Message help = io.drain(100, 7);
+		io.receive(new Message[] { help }, 100);
+		io.receive(new Message[] { help }, 150);
+		io.begin(BroadcastChannel.SCOUTS, BroadcastType.LOW_FLUX_HELP);
+		io.end();
+		io.receive(new Message[] { io.drain(150, 7) }, 150);
+		System.out.println("help heard " + heard[0] + " times, expected 2");
+
+		// our own swarm target replaces our older one, but not the one we
+		// are relaying for robot 5
+		BroadcastSystem other = new BroadcastSystem();
+		other.begin(BroadcastChannel.ALL, BroadcastType.SWARM_TARGET);
+		other.putUShort(0);
+		other.putLoc(10, 10);
+		other.end();
+		Message relay = other.drain(0, 5);
+		char[] d = relay.strings[0].toCharArray();
+		d[METADATA_LENGTH + RECORD_HEADER_LENGTH + META_ID] = 5;
+		relay.strings[0] = new String(d);
+		relay.ints[1] = io.hashMessage(relay.strings[0]);
+		io.flushSendQueue();
+		io.receive(new Message[] { relay }, 0);
+		for (int k = 0; k < 2; k++) {
+			io.begin(BroadcastChannel.ALL, BroadcastType.SWARM_TARGET);
+			io.putUShort(0);
+			io.putLoc(20 + k, 20);
+			io.end();
+		}
+		String origins = "";
+		for (int j = 0; j < io.recCount; j++) {
+			if (io.recType[j] == BroadcastType.SWARM_TARGET.ordinal())
+				origins += " " + (int) io.sendBuf[io.recStart[j]
+						+ RECORD_HEADER_LENGTH + META_ID];
+		}
+		System.out.println("swarm targets from" + origins
+				+ ", expected 5 0");
+		io.flushSendQueue();
+
+		// acks count robots, not ack records: robot 9 acks three times,
+		// then robot 10 once
+		int t = BroadcastType.ENEMY_SPOTTED.ordinal();
+		io.critSeq[t] = 3;
+		for (int id = 9; id <= 10; id++) {
+			for (int k = id == 9 ? 3 : 1; --k >= 0;) {
+				other.sendUShorts(BroadcastChannel.ALL, BroadcastType.ACK,
+						new int[] { 0, 1 << 3 });
+				io.receive(new Message[] { other.drain(k, id) }, k);
+			}
+		}
+		System.out.println(io.critAcks[t] + " ackers, expected 2");
+
+		// urgent records of every waiting broadcast are dispatched before
+		// any bulk map record, however old the map record is
+		final StringBuilder order = new StringBuilder();
+		MessageHandler log = new MessageHandler() {
+			public void processMessage(BroadcastType t, MessageView v) {
+				order.append(t == BroadcastType.ENEMY_KILL ? " kill" : " map");
+			}
+		};
+		io.registerHandler(BroadcastType.MAP_FRAGMENTS, log);
+		io.registerHandler(BroadcastType.ENEMY_KILL, log);
+		Message[] backlog = new Message[2];
+		for (int k = 0; k < 2; k++) {
+			other.sendUShorts(BroadcastChannel.ALL,
+					BroadcastType.MAP_FRAGMENTS, new int[] { k });
+			other.sendUShort(BroadcastChannel.ALL, BroadcastType.ENEMY_KILL, k);
+			backlog[k] = other.drain(10 + k, 5);
+		}
+		io.receive(backlog, 11);
+		System.out.println("dispatched" + order
+				+ ", expected kill kill map map");
 	}
 
 }
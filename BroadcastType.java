@@ -3,33 +3,122 @@ package tcwolf;
 //Types of messages
 public enum BroadcastType {
 	
-	NONE,
-	POWERNODE_FRAGMENTS,
-	MAP_FRAGMENTS,
-	MAP_EDGES,
-	GUESS_ENEMY_TEAM,
-	ENEMY_INFO,
-	ENEMY_KILL,
-	SWARM_TARGET,
-	ENEMY_SPOTTED,
-	LOW_FLUX_HELP,
-	DETECTED_GAME_END,
+	//   priority, superseded by newer copies, staleness in rounds, relay hops,
+	//   scope, payload layout, critical (acked, see BroadcastSystem),
+	//   rounds it may wait to share a broadcast with others
+	NONE(0, false, 0, 0, BroadcastType.SCOPE_GLOBAL, "", false, 0),
+	//   enemy core, node, neighbors... as x << 15 | y
+	POWERNODE_FRAGMENTS(0, false, 50, 0, BroadcastType.SCOPE_GLOBAL, "II*I", false, 0),
+	//   runs of blocks, see SharedExplorationSystem.putMapFragment
+	MAP_FRAGMENTS(0, false, 50, 0, BroadcastType.SCOPE_GLOBAL, "*S", false, 0),
+	//   x min, x max, y min, y max, then the same for tiles seen on the map
+	MAP_EDGES(1, true, 50, 0, BroadcastType.SCOPE_GLOBAL, "SSSSSSSS", false, 5),
+	//   (x block, bitmap of fully sensed y blocks 16 to 47) per column
+	MAP_DIGEST(0, false, 50, 0, BroadcastType.SCOPE_GLOBAL, "*SI", false, 5),
+	//   team number
+	GUESS_ENEMY_TEAM(1, true, 100, 0, BroadcastType.SCOPE_GLOBAL, "S", true, 5),
+	//   (id, location, stats) per robot, see BroadcastSystem.sendEnemyInfo
+	ENEMY_INFO(2, true, 2, 0, BroadcastType.SCOPE_SQUAD, "*SLS", false, 0),
+	//   robot id
+	ENEMY_KILL(2, false, 5, 0, BroadcastType.SCOPE_SQUAD, "S", false, 2),
+	//   target is moving, target
+	SWARM_TARGET(2, true, 6, 2, BroadcastType.SCOPE_GLOBAL, "SL", false, 0),
+	//   round spotted, location
+	ENEMY_SPOTTED(3, true, 40, 3, BroadcastType.SCOPE_GLOBAL, "SL", true, 0),
+	//   nothing, the sender is the one in need
+	LOW_FLUX_HELP(3, false, 10, 0, BroadcastType.SCOPE_GLOBAL, "", false, 0),
+	//   estimated last round
+	DETECTED_GAME_END(3, true, 100, 4, BroadcastType.SCOPE_GLOBAL, "S", true, 0),
+	//   (robot id, bitmap of its critical sequence numbers heard) per robot
+	ACK(1, false, 3, 0, BroadcastType.SCOPE_GLOBAL, "*SS", false, 0),
 	;
 
+	//Payload field kinds used in layouts.  Fields after FIELD_REPEAT form a
+	//group that repeats to the end of the payload.
+	public static final char FIELD_USHORT = 'S'; // one char
+	public static final char FIELD_UINT = 'I'; // two chars, low half first
+	public static final char FIELD_LOC = 'L'; // compact location, 1 or 3 chars
+	public static final char FIELD_REPEAT = '*';
+
+	//Decode table, so lookups don't clone values() every message
+	private static final BroadcastType[] TYPES = values();
+
+	//Squared radii a message is meant to reach.  Local covers robots in
+	//sight of the sender, squad the robots fighting alongside it.
+	public static final int SCOPE_LOCAL = 64;
+	public static final int SCOPE_SQUAD = 400;
+	public static final int SCOPE_GLOBAL = Character.MAX_VALUE;
+
+	//Highest priority level in use
+	public static final int MAX_PRIORITY = 3;
+
+	//Longest staleness window of any type
+	public static final int MAX_STALENESS = 100;
+
 	//Message header
 	public final char header_c;
 	
 	//Message header, string
 	public final String header_s;
 	
-	//Decode to enum
+	//Send order when the flux budget can't cover the whole queue, 
+	//higher goes first
+	public final int priority;
+	
+	//Only the newest queued copy of this type is worth sending
+	public final boolean supersedes;
+
+	//A received record older than this many rounds is dropped unread
+	public final int staleness;
+
+	//Hops a record of this type may travel, 0 if it is never relayed
+	public final int relayTTL;
+
+	//Squared distance from the sender beyond which receivers drop it
+	public final int scope;
+
+	//Field kinds of the payload, in order
+	public final String layout;
+
+	//Fewest chars a well formed payload can have.  Shorter records are
+	//dropped before dispatch, so handlers read the fixed fields unchecked.
+	public final int minLength;
+
+	//Repeated until acknowledged rather than blindly
+	public final boolean critical;
+
+	//Rounds a queued record may be held back so it goes out batched with
+	//others, 0 to send at the first chance
+	public final int batchDelay;
+	
+	//Decode to enum.  The high byte may carry a critical sequence number.
 	public static BroadcastType decode(char header) {
-		return BroadcastType.values()[header];
+		int t = header & 0xFF;
+		return t < TYPES.length ? TYPES[t] : NONE;
 	}
 	
-	private BroadcastType() {
+	private BroadcastType(int priority, boolean supersedes, int staleness,
+			int relayTTL, int scope, String layout, boolean critical,
+			int batchDelay) {
 		header_c = (char)(this.ordinal());
 		header_s = String.valueOf(header_c);
+		this.priority = priority;
+		this.supersedes = supersedes;
+		this.staleness = staleness;
+		this.relayTTL = relayTTL;
+		this.scope = scope;
+		this.layout = layout;
+		this.critical = critical;
+		this.batchDelay = batchDelay;
+
+		int min = 0;
+		for (int i = 0; i < layout.length(); i++) {
+			char f = layout.charAt(i);
+			if (f == FIELD_REPEAT)
+				break;
+			min += f == FIELD_UINT ? 2 : 1;
+		}
+		minLength = min;
 	}
 	
 }
@@ -5,7 +5,7 @@ import battlecode.common.MapLocation;
 import battlecode.common.RobotInfo;
 import battlecode.common.RobotType;
 
-public class ExtendedRadarSystem {
+public class ExtendedRadarSystem implements MessageHandler {
 	private static final int BUFFER_SIZE = 4096;
 	public static final int ALLY_MEMORY_TIMEOUT = 5;
 	private static final int ENEMY_MEMORY_TIMEOUT = 16;
@@ -34,6 +34,27 @@ public class ExtendedRadarSystem {
 		flags = new int[BUFFER_SIZE];
 		flagCount = 0;
 		reset();
+
+		// the fighters share a radar picture, archons read ENEMY_INFO
+		// their own way
+		if (br.myType == RobotType.SOLDIER
+				|| br.myType == RobotType.DISRUPTER
+				|| br.myType == RobotType.SCORCHER) {
+			br.io.registerHandler(BroadcastType.ENEMY_INFO, this);
+			br.io.registerHandler(BroadcastType.ENEMY_KILL, this);
+		}
+	}
+
+	// Merges radar reports and kills from nearby allies
+	public void processMessage(BroadcastType msgType, MessageView msg) {
+		switch (msgType) {
+		case ENEMY_INFO:
+			integrateEnemyInfo(BroadcastSystem.decodeEnemyInfo(msg));
+			break;
+		case ENEMY_KILL:
+			integrateEnemyKill(BroadcastSystem.decodeShort(msg));
+			break;
+		}
 	}
 
 	// Clear all units in the extended radar.
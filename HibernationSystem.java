@@ -58,20 +58,6 @@ public class HibernationSystem {
 		// team number check
 		int teamkey = br.io.teamkey;
 		
-		
-		// generate our help message
-		Message helpMsg = new Message();
-		
-		String data = 
-				BroadcastChannel.SCOUTS.chanHeader.concat(
-				BroadcastType.LOW_FLUX_HELP.header_s).concat(
-				br.io.generateMetadata());
-		helpMsg.ints = new int[]{
-				br.io.teamkey,
-				br.io.hashMessage(new StringBuilder(data)),
-		};
-		helpMsg.strings = new String[]{data};
-		
 
 		while (true) {
 			
@@ -99,8 +85,17 @@ public class HibernationSystem {
 					return EXIT_REFUELED;
 				}
 				
-				// send a help message
+				// send a help message, stamped afresh each time, as
+				// receivers drop it once it is a few rounds old
 				if(time++ % 50 == 0) {
+					String data = br.io.generateSignal(BroadcastChannel.SCOUTS,
+							BroadcastType.LOW_FLUX_HELP);
+					Message helpMsg = new Message();
+					helpMsg.ints = new int[]{
+							teamkey,
+							br.io.hashMessage(data),
+					};
+					helpMsg.strings = new String[]{data};
 					try{
 						rc.broadcast(helpMsg);
 					} catch(GameActionException e) {
@@ -7,7 +7,19 @@ import battlecode.common.RobotType;
 import battlecode.common.TerrainTile;
 
 //The data structure is used to store terrain of the world map as sensed by one robot.
-//  It stores a 256x256 boolean array representing the tiles that are walls.
+//  It stores two 256x256 bitboards, one for the tiles that are walls and one
+//  for the tiles that have been sensed.  Each is 256 rows of four longs, row
+//  x holding bit y at word y >> 6, so a tile test is one array read and a
+//  mask, and a 4x4 block for the packed broadcast format is four nibbles.
+//  Rows and power node pages are only allocated once something is written
+//  to them, so robots that never sense terrain carry next to nothing.
+//
+//  Maps are symmetric about their center, by a rotation or by a reflection
+//  in x, in y or in a diagonal.  All five are tested against the terrain as
+//  it arrives, and once only one is left the mirror image of every wall
+//  sensed is filled in for free.  Mirrored walls are never marked sensed,
+//  so sensing keeps testing the hypothesis, and if it is contradicted they
+//  are taken back.
 //  Static variables should definitely be changed if any map constants are modified
 
 public class MapCacheSystem {
@@ -15,30 +27,113 @@ public class MapCacheSystem {
 	public final static int POWER_CORE_POSITION = 128;
 	public final static int MAP_BLOCK_SIZE = 4;
 	public final static int PACKED_MAP_SIZE = 64;
+	public final static int BITBOARD_WORDS = MAP_SIZE / 64;
 
 	final BaseRobot br;
-	final boolean[][] isWall;
-	final int[][] packedIsWall;
-	final boolean[][] sensed;
-	final int[][] packedSensed;
-	final FastUShortSet packedDataUpdated;
-	final short[][] powerNodeID;
+	final long[][] wallBits;
+	final long[][] sensedBits;
 	final PowerNodeGraph powerNodeGraph;
 	final int powerCoreWorldX, powerCoreWorldY;
 	public int edgeXMin, edgeXMax, edgeYMin, edgeYMax;
 	int senseRadius;
+
+	// Map edges, as indices for the edge bounds, min edge then max edge
+	public final static int EDGE_XMIN = 0;
+	public final static int EDGE_XMAX = 1;
+	public final static int EDGE_YMIN = 2;
+	public final static int EDGE_YMAX = 3;
+
+	// Maps are 20 to 60 tiles on a side, so the off map tiles just past
+	// either end of an axis are 21 to 61 apart
+	public final static int MIN_EDGE_SPAN = 21;
+	public final static int MAX_EDGE_SPAN = 61;
+
+	// Edge bounds at most this far apart are as good as known
+	public final static int EDGE_SETTLED = 2;
+
+	// Box around every tile the team has seen on the map, starting with
+	// our power core.  Edges lie strictly outside it.
+	int inMapXMin, inMapXMax, inMapYMin, inMapYMax;
+
+	// Map symmetry hypotheses, as bits of symmetryCandidates
+	public final static int SYM_ROTATE = 1;
+	public final static int SYM_FLIP_X = 2;
+	public final static int SYM_FLIP_Y = 4;
+	public final static int SYM_DIAGONAL = 8;
+	public final static int SYM_ANTIDIAGONAL = 16;
+
+	// Hypotheses nothing has contradicted yet
+	public int symmetryCandidates = SYM_ROTATE | SYM_FLIP_X | SYM_FLIP_Y
+			| SYM_DIAGONAL | SYM_ANTIDIAGONAL;
+
+	// Twice the map center in cache coordinates, 0 until known
+	int symSumX, symSumY;
+
+	// Rows written since they were last checked against the hypotheses
+	private final long[] rowsToCheck = new long[BITBOARD_WORDS];
+
+	// Power nodes already checked against the hypotheses
+	private int symNodesChecked;
+
+	// Edges filled in from the symmetry rather than sensed, bit per EDGE_*
+	private int mirroredEdges;
+
+	// Blocks this robot sensed something new in since it last broadcast
+	// them, bit yblock of word xblock, with the rounds each block last
+	// changed and was last broadcast
+	private final long[] blockDirty = new long[PACKED_MAP_SIZE];
+	final PagedIntGrid blockChangedRound;
+	final PagedIntGrid blockSentRound;
+
+	// Blocks some teammate is known to have fully sensed, same layout
+	final long[] teamHasBlock = new long[PACKED_MAP_SIZE];
+
+	// Walking distances between power nodes come from a flood fill over the
+	// bitboards, started at floodSource and run a band of rows at a time by
+	// distanceStep.  flood holds the tiles reached, allocated on first use.
+	// Each pass over rows floodX0 to floodX1 is one more move; floodX is
+	// the next row of the pass, and floodPrev what its previous row held
+	// before the pass.  Targets are the other nodes, sorted by x.  Their
+	// distances go into floodRow, which replaces the source's walking row
+	// only once the flood is done, so queries never see a partial row.
+	public final static int FLOOD_ROWS_PER_STEP = 8;
+	public final static int WALK_REFRESH_ROUNDS = 200;
+	private long[][] flood;
+	private final long[] floodPrev = new long[BITBOARD_WORDS];
+	private final long[] floodCol = new long[BITBOARD_WORDS];
+	private final long[] floodDil = new long[BITBOARD_WORDS];
+	private final long[] floodMask = new long[BITBOARD_WORDS];
+	private final short[] floodTargets = new short[51];
+	private short[] floodRow = new short[51];
+	private int floodSource, floodNodes, floodMoves, floodTargetCount,
+			floodLeft;
+	private int floodX, floodX0, floodX1, floodXMin, floodXMax, floodXLo,
+			floodXHi, floodW0, floodW1;
+	private boolean floodGrew;
+
+	// Scratch rows for reflecting in y
+	private final long[] reversedRow = new long[BITBOARD_WORDS];
+	private final long[] mirroredSensed = new long[BITBOARD_WORDS];
+	private final long[] mirroredWall = new long[BITBOARD_WORDS];
 	private final int[][][] optimizedSensingList;
 
 	public MapCacheSystem(BaseRobot baseRobot) {
+		this(baseRobot, baseRobot.rc.sensePowerCore().getLocation(),
+				baseRobot.myType);
+	}
+
+	// A cache for a robot of the given type whose power core is at loc.
+	// BroadcastBenchmark passes no robot, and only integrates terrain.
+	MapCacheSystem(BaseRobot baseRobot, MapLocation loc, RobotType type) {
 		this.br = baseRobot;
-		isWall = new boolean[MAP_SIZE][MAP_SIZE];
-		sensed = new boolean[MAP_SIZE][MAP_SIZE];
-		packedIsWall = new int[PACKED_MAP_SIZE][PACKED_MAP_SIZE];
-		packedSensed = new int[PACKED_MAP_SIZE][PACKED_MAP_SIZE];
-		packedDataUpdated = new FastUShortSet();
-		initPackedDataStructures();
-		powerNodeID = new short[MAP_SIZE][MAP_SIZE];
-		MapLocation loc = baseRobot.rc.sensePowerCore().getLocation();
+		wallBits = new long[MAP_SIZE][];
+		sensedBits = new long[MAP_SIZE][];
+		for (int x = 0; x < MAP_SIZE; x++) {
+			wallBits[x] = EMPTY_ROW;
+			sensedBits[x] = EMPTY_ROW;
+		}
+		blockChangedRound = new PagedIntGrid(PACKED_MAP_SIZE, PACKED_MAP_SIZE);
+		blockSentRound = new PagedIntGrid(PACKED_MAP_SIZE, PACKED_MAP_SIZE);
 		powerCoreWorldX = loc.x;
 		powerCoreWorldY = loc.y;
 		powerNodeGraph = new PowerNodeGraph();
@@ -46,8 +141,9 @@ public class MapCacheSystem {
 		edgeXMax = 0;
 		edgeYMin = 0;
 		edgeYMax = 0;
-		senseRadius = (int) Math.sqrt(baseRobot.myType.sensorRadiusSquared);
-		switch (baseRobot.myType) {
+		inMapXMin = inMapXMax = inMapYMin = inMapYMax = POWER_CORE_POSITION;
+		senseRadius = (int) Math.sqrt(type.sensorRadiusSquared);
+		switch (type) {
 		case ARCHON:
 			optimizedSensingList = sensorRangeARCHON;
 			break;
@@ -68,14 +164,28 @@ public class MapCacheSystem {
 		}
 	}
 
-	private void initPackedDataStructures() {
-		// 17,47 are optimized magic numbers from (128-60)/4 and (128+60)/4
-		for (int xb = 17; xb < 47; xb++)
-			for (int yb = 17; yb < 47; yb++) {
-				packedIsWall[xb][yb] = xb * (1 << 22) + yb * (1 << 16);
-			}
-		for (int xb = 17; xb < 47; xb++)
-			System.arraycopy(packedIsWall[xb], 17, packedSensed[xb], 17, 30);
+	// Every bitboard row until it is first written.  Never written itself.
+	private static final long[] EMPTY_ROW = new long[BITBOARD_WORDS];
+
+	// Row x of a bitboard layer, given storage of its own if it had none
+	static long[] writableRow(long[][] layer, int x) {
+		long[] row = layer[x];
+		if (row == EMPTY_ROW)
+			row = layer[x] = new long[BITBOARD_WORDS];
+		return row;
+	}
+
+	// Is bit (x, y) of a bitboard layer set?
+	public static boolean testBit(long[][] layer, int x, int y) {
+		return (layer[x][y >> 6] & 1L << y) != 0;
+	}
+
+	// Sets or clears bit (x, y) of a bitboard layer
+	public static void setBit(long[][] layer, int x, int y, boolean b) {
+		if (b)
+			writableRow(layer, x)[y >> 6] |= 1L << y;
+		else if (layer[x] != EMPTY_ROW)
+			layer[x][y >> 6] &= ~(1L << y);
 	}
 
 	@Override
@@ -85,8 +195,9 @@ public class MapCacheSystem {
 		int myY = worldToCacheY(br.curLoc.y);
 		for (int y = myY - 10; y < myY + 10; y++) {
 			for (int x = myX - 10; x < myX + 10; x++)
-				sb.append((y == myY && x == myX) ? 'x' : (!sensed[x][y]) ? 'o'
-						: (isWall[x][y]) ? '#' : '.');
+				sb.append((y == myY && x == myX) ? 'x'
+						: !testBit(sensedBits, x, y) ? 'o'
+								: testBit(wallBits, x, y) ? '#' : '.');
 			sb.append("\n");
 		}
 		sb.append("Edge data: \nx=[" + edgeXMin + "," + edgeXMax + "] y=["
@@ -108,6 +219,14 @@ public class MapCacheSystem {
 		if (knownEnemyCoreLoc != null)
 			return knownEnemyCoreLoc;
 
+		// With the map symmetry worked out it is the image of our core
+		int sym = resolvedSymmetry();
+		if (sym != 0) {
+			int x = mirrorX(sym, POWER_CORE_POSITION, POWER_CORE_POSITION);
+			int y = mirrorY(sym, POWER_CORE_POSITION, POWER_CORE_POSITION);
+			return new MapLocation(cacheToWorldX(x), cacheToWorldY(y));
+		}
+
 		// If no map edges known, add up vectors of our base to each known
 		// power node location, and return a location far in that direction
 		int mapEdgesKnown = 0;
@@ -132,57 +251,38 @@ public class MapCacheSystem {
 			return new MapLocation(powerCoreWorldX + sdx, powerCoreWorldY + sdy);
 		}
 
-		// Current heuristic: - assume map size is 60 if we don't know it. -
-		// assume rotational symmetry
-		int mapSize = 61;
-		int xminGuess = edgeXMin;
-		int xmaxGuess = edgeXMax;
-		int yminGuess = edgeYMin;
-		int ymaxGuess = edgeYMax;
-		if (xminGuess == 0) {
-			if (xmaxGuess == 0) {
-				xminGuess = POWER_CORE_POSITION;
-				xmaxGuess = POWER_CORE_POSITION;
-			} else {
-				xminGuess = xmaxGuess - mapSize;
-			}
-		} else if (xmaxGuess == 0) {
-			xmaxGuess = xminGuess + mapSize;
-		}
-		if (yminGuess == 0) {
-			if (ymaxGuess == 0) {
-				yminGuess = POWER_CORE_POSITION;
-				ymaxGuess = POWER_CORE_POSITION;
-			} else {
-				yminGuess = ymaxGuess - mapSize;
-			}
-		} else if (ymaxGuess == 0) {
-			ymaxGuess = yminGuess + mapSize;
-		}
+		// Current heuristic: - estimate unknown edges from their bounds. -
+		// try the symmetries not yet ruled out, or all of them if terrain
+		// has contradicted every one
+		sym = symmetryCandidates != 0 ? symmetryCandidates : -1;
+		int xminGuess = edgeEstimate(EDGE_XMIN);
+		int xmaxGuess = edgeEstimate(EDGE_XMAX);
+		int yminGuess = edgeEstimate(EDGE_YMIN);
+		int ymaxGuess = edgeEstimate(EDGE_YMAX);
 		int x = xminGuess + xmaxGuess - POWER_CORE_POSITION;
 		int y = yminGuess + ymaxGuess - POWER_CORE_POSITION;
 		MapLocation guess = new MapLocation(cacheToWorldX(x), cacheToWorldY(y));
-		if (!isSensed(guess))
+		if ((sym & SYM_ROTATE) != 0 && !isSensed(guess))
 			return guess;
 		x = xminGuess + xmaxGuess - POWER_CORE_POSITION;
 		y = POWER_CORE_POSITION;
 		guess = new MapLocation(cacheToWorldX(x), cacheToWorldY(y));
-		if (!isSensed(guess))
+		if ((sym & SYM_FLIP_X) != 0 && !isSensed(guess))
 			return guess;
 		x = POWER_CORE_POSITION;
 		y = yminGuess + ymaxGuess - POWER_CORE_POSITION;
 		guess = new MapLocation(cacheToWorldX(x), cacheToWorldY(y));
-		if (!isSensed(guess))
+		if ((sym & SYM_FLIP_Y) != 0 && !isSensed(guess))
 			return guess;
 		x = xminGuess + ymaxGuess - POWER_CORE_POSITION;
 		y = yminGuess + xmaxGuess - POWER_CORE_POSITION;
 		guess = new MapLocation(cacheToWorldX(x), cacheToWorldY(y));
-		if (!isSensed(guess))
+		if ((sym & SYM_ANTIDIAGONAL) != 0 && !isSensed(guess))
 			return guess;
 		x = xminGuess - yminGuess + POWER_CORE_POSITION;
 		y = yminGuess - xminGuess + POWER_CORE_POSITION;
 		guess = new MapLocation(cacheToWorldX(x), cacheToWorldY(y));
-		if (!isSensed(guess))
+		if ((sym & SYM_DIAGONAL) != 0 && !isSensed(guess))
 			return guess;
 		if (edgeXMin == 0)
 			return br.curLoc.add(Direction.WEST, 60);
@@ -199,10 +299,10 @@ public class MapCacheSystem {
 		MapLocation enemyPowerCoreGuess = guessEnemyPowerCoreLocation();
 		MapLocation[] nodeLocs = br.dc.getCapturablePowerCores();
 		MapLocation bestLoc = null;
-		double bestValue = Integer.MAX_VALUE;
+		int bestValue = Integer.MAX_VALUE;
 		for (MapLocation loc : nodeLocs) {
-			double value = Math.sqrt(br.curLoc.distanceSquaredTo(loc))
-					+ Math.sqrt(loc.distanceSquaredTo(enemyPowerCoreGuess));
+			int value = moveDistance(br.curLoc, loc)
+					+ nodeDistance(loc, enemyPowerCoreGuess);
 			if (value < bestValue) {
 				bestValue = value;
 				bestLoc = loc;
@@ -218,12 +318,18 @@ public class MapCacheSystem {
 			int randomIndex = (int) (Util.randDouble() * nodeLocs.length);
 			return nodeLocs[randomIndex];
 		} else if (br.myArchonID == 1 || (br.myArchonID >= 3 && rand < 0.5)) {
-			// Take power node farthest from enemy base
+			// Take power node farthest from enemy base, first in links the
+			// enemy has to capture to get there, then in moves
 			MapLocation enemyCore = guessEnemyPowerCoreLocation();
+			int coreID = powerNodeGraph.enemyPowerCoreID;
 			int farthestIndex = -1;
 			int farthestDist = -1;
 			for (int i = 0; i < nodeLocs.length; i++) {
-				int dist = enemyCore.distanceSquaredTo(nodeLocs[i]);
+				int id = getPowerNodeID(nodeLocs[i]);
+				int dist = nodeDistance(enemyCore, nodeLocs[i]);
+				if (coreID != 0 && id != 0)
+					dist += Math.max(powerNodeGraph.hopDistance(coreID, id), 0)
+							* MAP_SIZE;
 				if (dist > farthestDist) {
 					farthestIndex = i;
 					farthestDist = dist;
@@ -234,7 +340,7 @@ public class MapCacheSystem {
 			int closestIndex = -1;
 			int closestDist = Integer.MAX_VALUE;
 			for (int i = 0; i < nodeLocs.length; i++) {
-				int dist = br.curLoc.distanceSquaredTo(nodeLocs[i]);
+				int dist = moveDistance(br.curLoc, nodeLocs[i]);
 				if (dist < closestDist) {
 					closestIndex = i;
 					closestDist = dist;
@@ -268,25 +374,29 @@ public class MapCacheSystem {
 		MapLocation myLoc = br.curLoc;
 		int myX = worldToCacheX(myLoc.x);
 		int myY = worldToCacheY(myLoc.y);
-		for (int dx = -senseRadius; dx <= senseRadius; dx++)
+		for (int dx = -senseRadius; dx <= senseRadius; dx++) {
+			int x = myX + dx;
+			long[] sensedRow = writableRow(sensedBits, x);
+			long[] wallRow = writableRow(wallBits, x);
+			rowsToCheck[x >> 6] |= 1L << x;
 			for (int dy = -senseRadius; dy <= senseRadius; dy++) {
-				int x = myX + dx;
 				int y = myY + dy;
-				int xblock = x / MAP_BLOCK_SIZE;
-				int yblock = y / MAP_BLOCK_SIZE;
-				if (sensed[x][y])
+				long bit = 1L << y;
+				if ((sensedRow[y >> 6] & bit) != 0)
 					continue;
 				MapLocation loc = myLoc.add(dx, dy);
 				TerrainTile tt = br.rc.senseTerrainTile(loc);
 				if (tt != null) {
-					boolean b = (tt != TerrainTile.LAND);
-					isWall[x][y] = b;
-					if (b)
-						packedIsWall[xblock][yblock] |= (1 << (x % 4 * 4 + y % 4));
-					sensed[x][y] = true;
-					packedSensed[xblock][yblock] |= (1 << (x % 4 * 4 + y % 4));
+					// land may overwrite a wall filled in by symmetry
+					if (tt != TerrainTile.LAND)
+						wallRow[y >> 6] |= bit;
+					else
+						wallRow[y >> 6] &= ~bit;
+					sensedRow[y >> 6] |= bit;
+					blockChanged(x, y);
 				}
 			}
+		}
 	}
 
 	private void senseTilesOptimized(Direction lastMoved) {
@@ -300,148 +410,695 @@ public class MapCacheSystem {
 			int dy = list[i][1];
 			int x = myX + dx;
 			int y = myY + dy;
-			int xblock = x / MAP_BLOCK_SIZE;
-			int yblock = y / MAP_BLOCK_SIZE;
-			if (sensed[x][y])
+			int w = y >> 6;
+			long bit = 1L << y;
+			if ((sensedBits[x][w] & bit) != 0)
 				continue;
 			MapLocation loc = myLoc.add(dx, dy);
 			TerrainTile tt = br.rc.senseTerrainTile(loc);
 			if (tt != null) {
-				boolean b = (tt != TerrainTile.LAND);
-				isWall[x][y] = b;
-				if (b) {
-					packedIsWall[xblock][yblock] |= (1 << (x % 4 * 4 + y % 4));
-					if (tb.wallCache[x][y] > tb.curWallCacheID
+				if (tt != TerrainTile.LAND) {
+					writableRow(wallBits, x)[w] |= bit;
+					if (tb.wallCache.get(x, y) > tb.curWallCacheID
 							* TangentBug.BUFFER_LENGTH)
 						tb.reset();
+				} else if ((wallBits[x][w] & bit) != 0) {
+					// a wall filled in by symmetry
+					wallBits[x][w] &= ~bit;
 				}
-				sensed[x][y] = true;
-				packedSensed[xblock][yblock] |= (1 << (x % 4 * 4 + y % 4));
+				writableRow(sensedBits, x)[w] |= bit;
+				blockChanged(x, y);
+				rowsToCheck[x >> 6] |= 1L << x;
 			}
 		}
 	}
 
 	private void insertArtificialWall(int cacheX, int cacheY) {
-		isWall[cacheX][cacheY] = true;
-		sensed[cacheX][cacheY] = true;
-		packedIsWall[cacheX / 4][cacheY / 4] |= (1 << (cacheX % 4 * 4 + cacheY % 4));
-		packedSensed[cacheX / 4][cacheY / 4] |= (1 << (cacheX % 4 * 4 + cacheY % 4));
+		long bit = 1L << cacheY;
+		writableRow(wallBits, cacheX)[cacheY >> 6] |= bit;
+		writableRow(sensedBits, cacheX)[cacheY >> 6] |= bit;
+		rowsToCheck[cacheX >> 6] |= 1L << cacheX;
+	}
+
+	// Packed terrain data of a 4x4 block, in the format of the map fragment
+	// broadcasts: block index (xblock * 64 + yblock) in the high 16 bits, and
+	// bit (x % 4 * 4 + y % 4) set for each wall tile.
+	public int packedIsWall(int xblock, int yblock) {
+		// walls filled in by symmetry are left out, only sensed ones go
+		return packBlock(wallBits, xblock, yblock)
+				& (packBlock(sensedBits, xblock, yblock) | 0xFFFF0000);
+	}
+
+	// As packedIsWall, for the tiles that have been sensed
+	public int packedSensed(int xblock, int yblock) {
+		return packBlock(sensedBits, xblock, yblock);
+	}
+
+	// The four rows of a block are one nibble each of the same word
+	private static int packBlock(long[][] layer, int xblock, int yblock) {
+		int x = xblock * MAP_BLOCK_SIZE;
+		int w = yblock >> 4;
+		int s = (yblock & 15) * MAP_BLOCK_SIZE;
+		return (xblock * PACKED_MAP_SIZE + yblock) << 16
+				| (int) (layer[x][w] >>> s & 0xF)
+				| (int) (layer[x + 1][w] >>> s & 0xF) << 4
+				| (int) (layer[x + 2][w] >>> s & 0xF) << 8
+				| (int) (layer[x + 3][w] >>> s & 0xF) << 12;
+	}
+
+	// Marks the block of a newly sensed tile for broadcasting
+	private void blockChanged(int x, int y) {
+		int xblock = x / MAP_BLOCK_SIZE;
+		int yblock = y / MAP_BLOCK_SIZE;
+		blockDirty[xblock] |= 1L << yblock;
+		blockChangedRound.set(xblock, yblock, br.curRound);
+	}
+
+	// Finds up to max of the most recently changed blocks that are waiting
+	// to be broadcast and that no teammate has all of.  Their indices
+	// (xblock * 64 + yblock) go into out in increasing order, so neighbours
+	// in a column end up next to each other.  Returns how many were found.
+	// They stay waiting until markBlocksSent.
+	public int newestDirtyBlocks(int[] out, int max) {
+		int[] rounds = new int[max];
+		int n = 0;
+		for (int xb = 0; xb < PACKED_MAP_SIZE; xb++) {
+			long bits = blockDirty[xb] &= ~teamHasBlock[xb];
+			while (bits != 0) {
+				int yb = Long.numberOfTrailingZeros(bits);
+				bits &= bits - 1;
+				int round = blockChangedRound.get(xb, yb);
+				// keep the newest max, newest first
+				int i;
+				if (n < max)
+					i = n++;
+				else if (round > rounds[max - 1])
+					i = max - 1;
+				else
+					continue;
+				for (; i > 0 && rounds[i - 1] < round; i--) {
+					rounds[i] = rounds[i - 1];
+					out[i] = out[i - 1];
+				}
+				rounds[i] = round;
+				out[i] = xb * PACKED_MAP_SIZE + yb;
+			}
+		}
+
+		for (int j = 0; j < n; j++) {
+			int block = out[j];
+			int i = j;
+			for (; i > 0 && out[i - 1] > block; i--)
+				out[i] = out[i - 1];
+			out[i] = block;
+		}
+		return n;
 	}
 
-	/** Combines packed terrain data with existing packed terrain data. */
-	public void integrateTerrainInfo(int packedIsWallInfo, int packedSensedInfo) {
-		int block = (packedIsWallInfo >> 16);
-		int xblock = block / 64;
-		int yblock = block % 64;
-		if (packedSensed[xblock][yblock] != packedSensedInfo) {
-			packedDataUpdated.add(block);
-			packedIsWall[xblock][yblock] |= packedIsWallInfo;
-			packedSensed[xblock][yblock] |= packedSensedInfo;
+	// Records that n blocks went out in a broadcast, with the given sensed
+	// bits.  A block sensed further since then stays waiting.  Sending is
+	// no proof anyone heard it, so only teamHasBlock data received from
+	// teammates keeps a block from being sent again.
+	public void markBlocksSent(int[] blocks, int[] sensed, int n) {
+		for (int i = 0; i < n; i++) {
+			int xb = blocks[i] / PACKED_MAP_SIZE;
+			int yb = blocks[i] % PACKED_MAP_SIZE;
+			if ((packedSensed(xb, yb) & 0xFFFF) != sensed[i])
+				continue;
+			blockDirty[xb] &= ~(1L << yb);
+			blockSentRound.set(xb, yb, br.curRound);
 		}
 	}
 
-	public boolean extractUpdatedPackedDataStep() {
-		if (packedDataUpdated.isEmpty())
+	// Bitmap of the y blocks in column xblock that have all 16 tiles sensed.
+	// ANDing the column's four rows leaves a full nibble for each such
+	// block, and two shifts fold every nibble down to its low bit.
+	public long completeBlocks(int xblock) {
+		int x = xblock * MAP_BLOCK_SIZE;
+		long[] r0 = sensedBits[x];
+		if (r0 == EMPTY_ROW)
+			return 0;
+		long[] r1 = sensedBits[x + 1];
+		long[] r2 = sensedBits[x + 2];
+		long[] r3 = sensedBits[x + 3];
+		long mask = 0;
+		for (int w = 0; w < BITBOARD_WORDS; w++) {
+			long a = r0[w] & r1[w] & r2[w] & r3[w];
+			a &= a >>> 1;
+			a &= a >>> 2;
+			a &= 0x1111111111111111L;
+			while (a != 0) {
+				int b = Long.numberOfTrailingZeros(a);
+				a &= a - 1;
+				mask |= 1L << (w * 16 + b / 4);
+			}
+		}
+		return mask;
+	}
+
+	/**
+	 * Combines the 16 wall and sensed bits of a block, as laid out by
+	 * packedIsWall, with existing terrain data.
+	 */
+	public void integrateTerrainInfo(int block, int packedIsWallInfo,
+			int packedSensedInfo) {
+		int x = block / PACKED_MAP_SIZE * MAP_BLOCK_SIZE;
+		int yblock = block % PACKED_MAP_SIZE;
+		// the sender has told the whole team
+		if ((packedSensedInfo & 0xFFFF) == 0xFFFF)
+			teamHasBlock[block / PACKED_MAP_SIZE] |= 1L << yblock;
+		int w = yblock >> 4;
+		int s = (yblock & 15) * MAP_BLOCK_SIZE;
+		// off map tiles read as walls, so only land is sure to be on the map
+		int land = packedSensedInfo & ~packedIsWallInfo & 0xFFFF;
+		if (land != 0) {
+			int rows = land | land >>> 4 | land >>> 8 | land >>> 12;
+			int y = yblock * MAP_BLOCK_SIZE;
+			seeInMap(x + Integer.numberOfTrailingZeros(land) / 4, y
+					+ Integer.numberOfTrailingZeros(rows));
+			seeInMap(x + (31 - Integer.numberOfLeadingZeros(land)) / 4, y + 31
+					- Integer.numberOfLeadingZeros(rows & 0xF));
+		}
+		for (int i = 0; i < MAP_BLOCK_SIZE; i++) {
+			long[] wallRow = writableRow(wallBits, x + i);
+			long[] sensedRow = writableRow(sensedBits, x + i);
+			long sensed = (long) (packedSensedInfo >> 4 * i & 0xF) << s;
+			long walls = (long) (packedIsWallInfo >> 4 * i & 0xF) << s & sensed;
+			// tiles new to us replace any wall filled in by symmetry
+			wallRow[w] = wallRow[w] & ~(sensed & ~sensedRow[w]) | walls;
+			sensedRow[w] |= sensed;
+			rowsToCheck[(x + i) >> 6] |= 1L << (x + i);
+		}
+	}
+
+	// Does the hypothesis mirror x, or y?
+	private static boolean flipsX(int sym) {
+		return sym != SYM_FLIP_Y;
+	}
+
+	private static boolean flipsY(int sym) {
+		return sym != SYM_FLIP_X;
+	}
+
+	// Does the hypothesis map rows onto columns?
+	private static boolean transposes(int sym) {
+		return sym >= SYM_DIAGONAL;
+	}
+
+	// Do we know the center coordinates the hypothesis mirrors about?
+	private boolean symmetryCenterKnown(int sym) {
+		return (!flipsX(sym) || symSumX != 0) && (!flipsY(sym) || symSumY != 0);
+	}
+
+	// The image of tile (x, y) under a hypothesis with a known center.  The
+	// diagonals go through the center, so x - y, or x + y, is kept.
+	private int mirrorX(int sym, int x, int y) {
+		switch (sym) {
+		case SYM_FLIP_Y:
+			return x;
+		case SYM_DIAGONAL:
+			return y + (symSumX - symSumY) / 2;
+		case SYM_ANTIDIAGONAL:
+			return (symSumX + symSumY) / 2 - y;
+		default:
+			return symSumX - x;
+		}
+	}
+
+	private int mirrorY(int sym, int x, int y) {
+		switch (sym) {
+		case SYM_FLIP_X:
+			return y;
+		case SYM_DIAGONAL:
+			return x - (symSumX - symSumY) / 2;
+		case SYM_ANTIDIAGONAL:
+			return (symSumX + symSumY) / 2 - x;
+		default:
+			return symSumY - y;
+		}
+	}
+
+	// The one hypothesis left with a known center, or 0
+	public int resolvedSymmetry() {
+		int c = symmetryCandidates;
+		if (c == 0 || (c & (c - 1)) != 0 || !symmetryCenterKnown(c))
+			return 0;
+		return c;
+	}
+
+	private void eliminateSymmetry(int sym) {
+		int c = symmetryCandidates & ~sym;
+		if (c == symmetryCandidates)
+			return;
+		// the hypothesis we mirrored with was wrong after all
+		if (resolvedSymmetry() != 0)
+			clearMirroredTerrain();
+		symmetryCandidates = c;
+		// down to one: every known row gets mirrored
+		if (c != 0 && (c & (c - 1)) == 0)
+			checkAllRows();
+	}
+
+	private void checkAllRows() {
+		for (int w = 0; w < BITBOARD_WORDS; w++)
+			rowsToCheck[w] = -1L;
+	}
+
+	// Takes back every wall and edge filled in by symmetry, leaving only
+	// what has been sensed
+	private void clearMirroredTerrain() {
+		for (int x = 0; x < MAP_SIZE; x++) {
+			long[] wall = wallBits[x];
+			if (wall == EMPTY_ROW)
+				continue;
+			long[] sensed = sensedBits[x];
+			for (int w = 0; w < BITBOARD_WORDS; w++)
+				wall[w] &= sensed[w];
+		}
+		if ((mirroredEdges & 1 << EDGE_XMIN) != 0)
+			edgeXMin = 0;
+		if ((mirroredEdges & 1 << EDGE_XMAX) != 0)
+			edgeXMax = 0;
+		if ((mirroredEdges & 1 << EDGE_YMIN) != 0)
+			edgeYMin = 0;
+		if ((mirroredEdges & 1 << EDGE_YMAX) != 0)
+			edgeYMax = 0;
+		mirroredEdges = 0;
+	}
+
+	// One step of symmetry inference: picks up a newly known map center,
+	// checks one power node or one written row against each hypothesis,
+	// and once a single hypothesis is left, and the row still agrees with
+	// it, mirrors the row.  Returns true when there is nothing left to do.
+	public boolean symmetryStep() {
+		if (symmetryCandidates == 0)
 			return true;
-		int block = packedDataUpdated.pop();
-		int xblock = block / 64;
-		int yblock = block % 64;
-		int isWallData = packedIsWall[xblock][yblock];
-		int sensedData = packedSensed[xblock][yblock];
-		for (int bit = 0; bit < 16; bit++) {
-			int x = xblock * MAP_BLOCK_SIZE + bit / 4;
-			int y = yblock * MAP_BLOCK_SIZE + bit % 4;
-			isWall[x][y] = ((isWallData & (1 << bit)) != 0);
-			sensed[x][y] = ((sensedData & (1 << bit)) != 0);
+		updateSymmetryCenter();
+		if (symNodesChecked < powerNodeGraph.nodeCount) {
+			checkNodeSymmetry(++symNodesChecked);
+			return false;
+		}
+
+		int x = -1;
+		for (int w = 0; w < BITBOARD_WORDS; w++) {
+			long bits = rowsToCheck[w];
+			if (bits != 0) {
+				int b = Long.numberOfTrailingZeros(bits);
+				rowsToCheck[w] = bits & ~(1L << b);
+				x = w * 64 + b;
+				break;
+			}
+		}
+		if (x < 0)
+			return true;
+
+		for (int sym = SYM_ROTATE; sym <= SYM_ANTIDIAGONAL; sym <<= 1) {
+			if ((symmetryCandidates & sym) != 0 && symmetryCenterKnown(sym)
+					&& !(transposes(sym) ? transposedRowConsistent(x, sym)
+							: rowConsistent(x, sym)))
+				eliminateSymmetry(sym);
+		}
+		int sym = resolvedSymmetry();
+		if (sym != 0 && transposes(sym)) {
+			copyTransposedRow(x, sym);
+		} else if (sym != 0) {
+			int p = flipsX(sym) ? symSumX - x : x;
+			if (p >= 0 && p < MAP_SIZE) {
+				copyMirroredRow(p, x, sym);
+				copyMirroredRow(x, p, sym);
+			}
 		}
 		return false;
 	}
 
-	private void senseAllMapEdges() {
-		MapLocation myLoc = br.curLoc;
-		if (edgeXMin == 0
-				&& br.rc.senseTerrainTile(myLoc
-						.add(Direction.WEST, senseRadius)) == TerrainTile.OFF_MAP) {
-			int d = senseRadius;
-			while (br.rc.senseTerrainTile(myLoc.add(Direction.WEST, d - 1)) == TerrainTile.OFF_MAP) {
-				d--;
+	// Learns the map center from the edges or the enemy power core, which
+	// is the image of ours.  The center only moves from unknown to known,
+	// and when it does every row is checked again.  A diagonal only needs
+	// the center's x - y, or x + y, which the core gives away too.
+	private void updateSymmetryCenter() {
+		int sx = edgeXMin != 0 && edgeXMax != 0 ? edgeXMin + edgeXMax : 0;
+		int sy = edgeYMin != 0 && edgeYMax != 0 ? edgeYMin + edgeYMax : 0;
+		int core = powerNodeGraph.enemyPowerCoreID;
+		if (core != 0) {
+			MapLocation loc = powerNodeGraph.nodeLocations[core];
+			int ex = worldToCacheX(loc.x);
+			int ey = worldToCacheY(loc.y);
+			// a reflection leaves the other coordinate of our core alone
+			if (ex != POWER_CORE_POSITION)
+				eliminateSymmetry(SYM_FLIP_Y);
+			if (ey != POWER_CORE_POSITION)
+				eliminateSymmetry(SYM_FLIP_X);
+			// and a diagonal swaps them, negated or not
+			if (ex + ey != 2 * POWER_CORE_POSITION)
+				eliminateSymmetry(SYM_DIAGONAL);
+			if (ex != ey)
+				eliminateSymmetry(SYM_ANTIDIAGONAL);
+			if (sx != 0 && sx != POWER_CORE_POSITION + ex)
+				eliminateSymmetry(SYM_ROTATE | SYM_FLIP_X);
+			if (sy != 0 && sy != POWER_CORE_POSITION + ey)
+				eliminateSymmetry(SYM_ROTATE | SYM_FLIP_Y);
+			if (sx != 0 && sy != 0 && sx - sy != ex - ey)
+				eliminateSymmetry(SYM_DIAGONAL);
+			if (sx != 0 && sy != 0
+					&& sx + sy != 2 * POWER_CORE_POSITION + ex + ey)
+				eliminateSymmetry(SYM_ANTIDIAGONAL);
+			sx = POWER_CORE_POSITION + ex;
+			sy = POWER_CORE_POSITION + ey;
+		}
+		if (symSumX == 0 && sx != 0 || symSumY == 0 && sy != 0) {
+			if (symSumX == 0)
+				symSumX = sx;
+			if (symSumY == 0)
+				symSumY = sy;
+			symNodesChecked = 0;
+			checkAllRows();
+		}
+
+		// a diagonal needs a square map, centered on the tile grid
+		if ((symmetryCandidates & (SYM_DIAGONAL | SYM_ANTIDIAGONAL)) != 0
+				&& (symSumX != 0 && symSumY != 0 && (symSumX - symSumY & 1) != 0
+						|| edgeXMin != 0 && edgeXMax != 0 && edgeYMin != 0
+						&& edgeYMax != 0
+						&& edgeXMax - edgeXMin != edgeYMax - edgeYMin))
+			eliminateSymmetry(SYM_DIAGONAL | SYM_ANTIDIAGONAL);
+
+		// a known edge gives away its mirror image
+		int sym = resolvedSymmetry();
+		if (sym == SYM_DIAGONAL) {
+			int d = (symSumX - symSumY) / 2;
+			inferEdge(EDGE_XMIN, EDGE_YMIN, d, 1);
+			inferEdge(EDGE_XMAX, EDGE_YMAX, d, 1);
+			inferEdge(EDGE_YMIN, EDGE_XMIN, -d, 1);
+			inferEdge(EDGE_YMAX, EDGE_XMAX, -d, 1);
+		} else if (sym == SYM_ANTIDIAGONAL) {
+			int c = (symSumX + symSumY) / 2;
+			inferEdge(EDGE_XMIN, EDGE_YMAX, c, -1);
+			inferEdge(EDGE_XMAX, EDGE_YMIN, c, -1);
+			inferEdge(EDGE_YMIN, EDGE_XMAX, c, -1);
+			inferEdge(EDGE_YMAX, EDGE_XMIN, c, -1);
+		} else if (sym != 0) {
+			if (flipsX(sym)) {
+				inferEdge(EDGE_XMIN, EDGE_XMAX, symSumX, -1);
+				inferEdge(EDGE_XMAX, EDGE_XMIN, symSumX, -1);
+			}
+			if (flipsY(sym)) {
+				inferEdge(EDGE_YMIN, EDGE_YMAX, symSumY, -1);
+				inferEdge(EDGE_YMAX, EDGE_YMIN, symSumY, -1);
 			}
-			edgeXMin = worldToCacheX(myLoc.x) - d;
-		}
-		if (edgeXMax == 0
-				&& br.rc.senseTerrainTile(myLoc
-						.add(Direction.EAST, senseRadius)) == TerrainTile.OFF_MAP) {
-			int d = senseRadius;
-			while (br.rc.senseTerrainTile(myLoc.add(Direction.EAST, d - 1)) == TerrainTile.OFF_MAP) {
-				d--;
+		}
+	}
+
+	// Fills in an unknown edge as offset + sign * the known edge from,
+	// remembering that it was not sensed
+	private void inferEdge(int edge, int from, int offset, int sign) {
+		int e = knownEdge(from);
+		if (e == 0 || knownEdge(edge) != 0)
+			return;
+		e = offset + sign * e;
+		switch (edge) {
+		case EDGE_XMIN:
+			edgeXMin = e;
+			break;
+		case EDGE_XMAX:
+			edgeXMax = e;
+			break;
+		case EDGE_YMIN:
+			edgeYMin = e;
+			break;
+		default:
+			edgeYMax = e;
+		}
+		mirroredEdges |= 1 << edge;
+	}
+
+	// Power nodes stand on land, so a hypothesis that mirrors one onto a
+	// sensed wall is wrong.  Power node tiles are themselves walls in the
+	// cache, which the node ID tells apart.
+	private void checkNodeSymmetry(int id) {
+		MapLocation loc = powerNodeGraph.nodeLocations[id];
+		if (loc == null)
+			return;
+		int x = worldToCacheX(loc.x);
+		int y = worldToCacheY(loc.y);
+		for (int sym = SYM_ROTATE; sym <= SYM_ANTIDIAGONAL; sym <<= 1) {
+			if ((symmetryCandidates & sym) == 0 || !symmetryCenterKnown(sym))
+				continue;
+			int mx = mirrorX(sym, x, y);
+			int my = mirrorY(sym, x, y);
+			if (mx >= 0 && mx < MAP_SIZE && my >= 0 && my < MAP_SIZE
+					&& testBit(sensedBits, mx, my) && testBit(wallBits, mx, my)
+					&& powerNodeGraph.getID(mx, my) == 0)
+				eliminateSymmetry(sym);
+		}
+	}
+
+	// Does row x agree with its mirror image on every tile sensed in both?
+	private boolean rowConsistent(int x, int sym) {
+		int p = flipsX(sym) ? symSumX - x : x;
+		if (p < 0 || p >= MAP_SIZE)
+			return true;
+		long[] sensedA = sensedBits[x];
+		long[] sensedB = sensedBits[p];
+		if (sensedA == EMPTY_ROW || sensedB == EMPTY_ROW)
+			return true;
+		long[] wallA = wallBits[x];
+		long[] wallB = wallBits[p];
+		if (flipsY(sym)) {
+			sensedB = mirrorRow(sensedB, mirroredSensed);
+			wallB = mirrorRow(wallB, mirroredWall);
+		}
+		for (int w = 0; w < BITBOARD_WORDS; w++) {
+			if ((sensedA[w] & sensedB[w] & (wallA[w] ^ wallB[w])) != 0)
+				return false;
+		}
+		return true;
+	}
+
+	// Adds the image of every wall sensed in row from to the tiles of row
+	// to that have not been sensed
+	private void copyMirroredRow(int from, int to, int sym) {
+		long[] sensed = sensedBits[from];
+		if (sensed == EMPTY_ROW)
+			return;
+		long[] wall = wallBits[from];
+		if (flipsY(sym)) {
+			sensed = mirrorRow(sensed, mirroredSensed);
+			wall = mirrorRow(wall, mirroredWall);
+		}
+		long[] sensedTo = sensedBits[to];
+		long[] wallTo = null;
+		for (int w = 0; w < BITBOARD_WORDS; w++) {
+			long add = sensed[w] & wall[w] & ~sensedTo[w];
+			if (add != 0) {
+				if (wallTo == null)
+					wallTo = writableRow(wallBits, to);
+				wallTo[w] |= add;
 			}
-			edgeXMax = worldToCacheX(myLoc.x) + d;
-		}
-		if (edgeYMin == 0
-				&& br.rc.senseTerrainTile(myLoc.add(Direction.NORTH,
-						senseRadius)) == TerrainTile.OFF_MAP) {
-			int d = senseRadius;
-			while (br.rc.senseTerrainTile(myLoc.add(Direction.NORTH, d - 1)) == TerrainTile.OFF_MAP) {
-				d--;
+		}
+	}
+
+	// As rowConsistent, for a diagonal, whose image of a row is a column
+	// and is read a tile at a time
+	private boolean transposedRowConsistent(int x, int sym) {
+		long[] sensed = sensedBits[x];
+		if (sensed == EMPTY_ROW)
+			return true;
+		long[] wall = wallBits[x];
+		for (int w = 0; w < BITBOARD_WORDS; w++) {
+			long bits = sensed[w];
+			while (bits != 0) {
+				long bit = bits & -bits;
+				bits &= bits - 1;
+				int y = w * 64 + Long.numberOfTrailingZeros(bit);
+				int mx = mirrorX(sym, x, y);
+				int my = mirrorY(sym, x, y);
+				if (mx >= 0 && mx < MAP_SIZE && my >= 0 && my < MAP_SIZE
+						&& testBit(sensedBits, mx, my)
+						&& testBit(wallBits, mx, my) != ((wall[w] & bit) != 0))
+					return false;
 			}
-			edgeYMin = worldToCacheY(myLoc.y) - d;
-		}
-		if (edgeYMax == 0
-				&& br.rc.senseTerrainTile(myLoc.add(Direction.SOUTH,
-						senseRadius)) == TerrainTile.OFF_MAP) {
-			int d = senseRadius;
-			while (br.rc.senseTerrainTile(myLoc.add(Direction.SOUTH, d - 1)) == TerrainTile.OFF_MAP) {
-				d--;
+		}
+		return true;
+	}
+
+	// As copyMirroredRow, for a diagonal: pushes the image of every wall
+	// sensed in row x out to tiles that have not been sensed.  Every row
+	// with a sensed tile is visited, so nothing needs pulling in.
+	private void copyTransposedRow(int x, int sym) {
+		long[] sensed = sensedBits[x];
+		if (sensed == EMPTY_ROW)
+			return;
+		long[] wall = wallBits[x];
+		for (int w = 0; w < BITBOARD_WORDS; w++) {
+			long bits = sensed[w] & wall[w];
+			while (bits != 0) {
+				int y = w * 64 + Long.numberOfTrailingZeros(bits);
+				bits &= bits - 1;
+				int mx = mirrorX(sym, x, y);
+				int my = mirrorY(sym, x, y);
+				if (mx >= 0 && mx < MAP_SIZE && my >= 0 && my < MAP_SIZE
+						&& !testBit(sensedBits, mx, my))
+					writableRow(wallBits, mx)[my >> 6] |= 1L << my;
 			}
-			edgeYMax = worldToCacheY(myLoc.y) + d;
 		}
 	}
 
+	// Reflects a row about symSumY / 2 into out: bit y of out is bit
+	// (symSumY - y) of row.  Reversing the 256 bits puts bit 255 - j at j,
+	// and a shift lines the center up.
+	private long[] mirrorRow(long[] row, long[] out) {
+		long[] rev = reversedRow;
+		for (int w = 0; w < BITBOARD_WORDS; w++)
+			rev[w] = Long.reverse(row[BITBOARD_WORDS - 1 - w]);
+		int k = MAP_SIZE - 1 - symSumY;
+		for (int w = 0; w < BITBOARD_WORDS; w++) {
+			// 64 bits of rev from bit j on, zeros past either end
+			int j = w * 64 + k;
+			int src = j >> 6;
+			int b = j & 63;
+			long lo = src >= 0 && src < BITBOARD_WORDS ? rev[src] : 0;
+			long hi = src + 1 >= 0 && src + 1 < BITBOARD_WORDS ? rev[src + 1]
+					: 0;
+			out[w] = b == 0 ? lo : lo >>> b | hi << (64 - b);
+		}
+		return out;
+	}
+
+	private void senseAllMapEdges() {
+		MapLocation myLoc = br.curLoc;
+		seeInMap(worldToCacheX(myLoc.x), worldToCacheY(myLoc.y));
+		if (edgeXMin == 0)
+			edgeXMin = probeEdge(myLoc, Direction.WEST);
+		if (edgeXMax == 0)
+			edgeXMax = probeEdge(myLoc, Direction.EAST);
+		if (edgeYMin == 0)
+			edgeYMin = probeEdge(myLoc, Direction.NORTH);
+		if (edgeYMax == 0)
+			edgeYMax = probeEdge(myLoc, Direction.SOUTH);
+	}
+
+	// Only the side we moved towards can show a new edge
 	private void senseMapEdgesOptimized(Direction lastMoved) {
 		MapLocation myLoc = br.curLoc;
-		if (edgeXMin == 0
-				&& lastMoved.dx == -1
-				&& br.rc.senseTerrainTile(myLoc
-						.add(Direction.WEST, senseRadius)) == TerrainTile.OFF_MAP) {
-			int d = senseRadius;
-			// Note that some of this code is not necessary if we use the system
-			// properly
-			// But it adds a little bit of robustness
-			while (br.rc.senseTerrainTile(myLoc.add(Direction.WEST, d - 1)) == TerrainTile.OFF_MAP) {
-				d--;
-			}
-			edgeXMin = worldToCacheX(myLoc.x) - d;
-		}
-		if (edgeXMax == 0
-				&& lastMoved.dx == 1
-				&& br.rc.senseTerrainTile(myLoc
-						.add(Direction.EAST, senseRadius)) == TerrainTile.OFF_MAP) {
-			int d = senseRadius;
-			while (br.rc.senseTerrainTile(myLoc.add(Direction.EAST, d - 1)) == TerrainTile.OFF_MAP) {
-				d--;
-			}
-			edgeXMax = worldToCacheX(myLoc.x) + d;
-		}
-		if (edgeYMin == 0
-				&& lastMoved.dy == -1
-				&& br.rc.senseTerrainTile(myLoc.add(Direction.NORTH,
-						senseRadius)) == TerrainTile.OFF_MAP) {
-			int d = senseRadius;
-			while (br.rc.senseTerrainTile(myLoc.add(Direction.NORTH, d - 1)) == TerrainTile.OFF_MAP) {
-				d--;
-			}
-			edgeYMin = worldToCacheY(myLoc.y) - d;
-		}
-		if (edgeYMax == 0
-				&& lastMoved.dy == 1
-				&& br.rc.senseTerrainTile(myLoc.add(Direction.SOUTH,
-						senseRadius)) == TerrainTile.OFF_MAP) {
-			int d = senseRadius;
-			while (br.rc.senseTerrainTile(myLoc.add(Direction.SOUTH, d - 1)) == TerrainTile.OFF_MAP) {
-				d--;
-			}
-			edgeYMax = worldToCacheY(myLoc.y) + d;
+		seeInMap(worldToCacheX(myLoc.x), worldToCacheY(myLoc.y));
+		if (edgeXMin == 0 && lastMoved.dx == -1)
+			edgeXMin = probeEdge(myLoc, Direction.WEST);
+		if (edgeXMax == 0 && lastMoved.dx == 1)
+			edgeXMax = probeEdge(myLoc, Direction.EAST);
+		if (edgeYMin == 0 && lastMoved.dy == -1)
+			edgeYMin = probeEdge(myLoc, Direction.NORTH);
+		if (edgeYMax == 0 && lastMoved.dy == 1)
+			edgeYMax = probeEdge(myLoc, Direction.SOUTH);
+	}
+
+	// Looks for the map edge in a compass direction.  If the tile at the
+	// edge of sensor range is off the map, binary searches for the first
+	// off map tile, starting from the farthest tile known to be on the map,
+	// and returns its cache coordinate along dir.  Otherwise that tile is
+	// on the map, which narrows the edge bounds, and returns 0.  A tile the
+	// sensors can't read (null) says nothing, and also returns 0.
+	private int probeEdge(MapLocation myLoc, Direction dir) {
+		int myX = worldToCacheX(myLoc.x);
+		int myY = worldToCacheY(myLoc.y);
+		int far = senseRadius;
+		TerrainTile t = br.rc.senseTerrainTile(myLoc.add(dir, far));
+		if (t == null)
+			return 0;
+		if (t != TerrainTile.OFF_MAP) {
+			seeInMap(myX + dir.dx * far, myY + dir.dy * far);
+			return 0;
+		}
+		int near = dir.dx < 0 ? myX - inMapXMin : dir.dx > 0 ? inMapXMax
+				- myX : dir.dy < 0 ? myY - inMapYMin : inMapYMax - myY;
+		if (near < 0 || near >= far)
+			near = 0;
+		while (far - near > 1) {
+			int mid = (near + far) >> 1;
+			t = br.rc.senseTerrainTile(myLoc.add(dir, mid));
+			if (t == null)
+				return 0;
+			if (t == TerrainTile.OFF_MAP)
+				far = mid;
+			else
+				near = mid;
 		}
+		return dir.dx != 0 ? myX + dir.dx * far : myY + dir.dy * far;
+	}
+
+	// Widens the box of tiles known to be on the map to take in (x, y)
+	void seeInMap(int x, int y) {
+		if (x < inMapXMin)
+			inMapXMin = x;
+		if (x > inMapXMax)
+			inMapXMax = x;
+		if (y < inMapYMin)
+			inMapYMin = y;
+		if (y > inMapYMax)
+			inMapYMax = y;
+	}
+
+	// As knownEdge, leaving out edges inferred from the map symmetry
+	public int sensedEdge(int edge) {
+		return (mirroredEdges & 1 << edge) != 0 ? 0 : knownEdge(edge);
+	}
+
+	// The known coordinate of an edge, or 0
+	public int knownEdge(int edge) {
+		switch (edge) {
+		case EDGE_XMIN:
+			return edgeXMin;
+		case EDGE_XMAX:
+			return edgeXMax;
+		case EDGE_YMIN:
+			return edgeYMin;
+		default:
+			return edgeYMax;
+		}
+	}
+
+	// Lowest coordinate an edge can have.  A min edge is no more than
+	// MAX_EDGE_SPAN below the max edge, which is beyond every tile seen on
+	// the map.  A max edge is beyond those tiles, and at least
+	// MIN_EDGE_SPAN above a known min edge.
+	public int edgeLow(int edge) {
+		int known = knownEdge(edge);
+		if (known != 0)
+			return known;
+		int far = knownEdge(edge ^ 1);
+		int seenMax = edge < EDGE_YMIN ? inMapXMax : inMapYMax;
+		if ((edge & 1) == 0)
+			return (far != 0 ? far : seenMax + 1) - MAX_EDGE_SPAN;
+		return far != 0 ? Math.max(seenMax + 1, far + MIN_EDGE_SPAN)
+				: seenMax + 1;
+	}
+
+	// Highest coordinate an edge can have, as edgeLow the other way round
+	public int edgeHigh(int edge) {
+		int known = knownEdge(edge);
+		if (known != 0)
+			return known;
+		int far = knownEdge(edge ^ 1);
+		int seenMin = edge < EDGE_YMIN ? inMapXMin : inMapYMin;
+		if ((edge & 1) == 1)
+			return (far != 0 ? far : seenMin - 1) + MAX_EDGE_SPAN;
+		return far != 0 ? Math.min(seenMin - 1, far - MIN_EDGE_SPAN)
+				: seenMin - 1;
+	}
+
+	// Best guess at an edge: the middle of its bounds, which is never more
+	// than edgeUncertainty / 2 off
+	public int edgeEstimate(int edge) {
+		return (edgeLow(edge) + edgeHigh(edge)) >> 1;
+	}
+
+	// How many coordinates an edge could still be at, less one; 0 once known
+	public int edgeUncertainty(int edge) {
+		return edgeHigh(edge) - edgeLow(edge);
+	}
+
+	// Is an edge still loose enough that finding it tells us something?
+	public boolean edgeUnsettled(int edge) {
+		return edgeUncertainty(edge) > EDGE_SETTLED;
 	}
 
 	private void sensePowerNodes() {
@@ -458,7 +1115,7 @@ public class MapCacheSystem {
 				int x = worldToCacheX(nodeLoc.x);
 				int y = worldToCacheY(nodeLoc.y);
 				insertArtificialWall(x, y);
-				powerNodeID[x][y] = id;
+				powerNodeGraph.setID(x, y, id);
 			}
 			if (node.powerCoreTeam() != null
 					&& node.powerCoreTeam() != br.myTeam) {
@@ -474,10 +1131,9 @@ public class MapCacheSystem {
 					powerNodeGraph.nodeLocations[neighborID] = neighborLoc;
 					int x = worldToCacheX(neighborLoc.x);
 					int y = worldToCacheY(neighborLoc.y);
-					powerNodeID[x][y] = neighborID;
+					powerNodeGraph.setID(x, y, neighborID);
 				}
-				powerNodeGraph.adjacencyList[id][powerNodeGraph.degreeCount[id]++] = neighborID;
-				powerNodeGraph.adjacencyList[neighborID][powerNodeGraph.degreeCount[neighborID]++] = id;
+				powerNodeGraph.addEdge(id, neighborID);
 			}
 			powerNodeGraph.nodeSensedCount++;
 			powerNodeGraph.nodeSensed[id] = true;
@@ -489,7 +1145,8 @@ public class MapCacheSystem {
 		if (powerNodeGraph.enemyPowerCoreID == 0 && data[0] != 32001) {
 			int coreX = data[0] >> 15;
 			int coreY = data[0] & mask;
-			short coreID = powerNodeID[worldToCacheX(coreX)][worldToCacheY(coreY)];
+			short coreID = powerNodeGraph.getID(worldToCacheX(coreX),
+					worldToCacheY(coreY));
 			if (coreID == 0) {
 				powerNodeGraph.nodeCount++;
 				coreID = powerNodeGraph.nodeCount;
@@ -497,7 +1154,7 @@ public class MapCacheSystem {
 						coreY);
 				int x = worldToCacheX(coreX);
 				int y = worldToCacheY(coreY);
-				powerNodeID[x][y] = coreID;
+				powerNodeGraph.setID(x, y, coreID);
 			}
 			powerNodeGraph.enemyPowerCoreID = coreID;
 		}
@@ -514,7 +1171,7 @@ public class MapCacheSystem {
 			int x = worldToCacheX(nodeX);
 			int y = worldToCacheY(nodeY);
 			insertArtificialWall(x, y);
-			powerNodeID[x][y] = id;
+			powerNodeGraph.setID(x, y, id);
 		}
 		for (int i = 2; i < data.length; i++) {
 			int neighborX = data[i] >> 15;
@@ -529,10 +1186,9 @@ public class MapCacheSystem {
 				powerNodeGraph.nodeLocations[neighborID] = neighborLoc;
 				int x = worldToCacheX(neighborX);
 				int y = worldToCacheY(neighborY);
-				powerNodeID[x][y] = neighborID;
+				powerNodeGraph.setID(x, y, neighborID);
 			}
-			powerNodeGraph.adjacencyList[id][powerNodeGraph.degreeCount[id]++] = neighborID;
-			powerNodeGraph.adjacencyList[neighborID][powerNodeGraph.degreeCount[neighborID]++] = id;
+			powerNodeGraph.addEdge(id, neighborID);
 		}
 		powerNodeGraph.nodeSensedCount++;
 		powerNodeGraph.nodeSensed[id] = true;
@@ -540,13 +1196,13 @@ public class MapCacheSystem {
 
 	// Does this robot know about the terrain of the given map location?
 	public boolean isSensed(MapLocation loc) {
-		return sensed[worldToCacheX(loc.x)][worldToCacheY(loc.y)];
+		return testBit(sensedBits, worldToCacheX(loc.x), worldToCacheY(loc.y));
 	}
 
 	// Is the given map location a wall tile (or an off map tile)?
 	// Will return false if the robot does not know.
 	public boolean isWall(MapLocation loc) {
-		return isWall[worldToCacheX(loc.x)][worldToCacheY(loc.y)];
+		return testBit(wallBits, worldToCacheX(loc.x), worldToCacheY(loc.y));
 	}
 
 	// Is the given map location an off map tile?
@@ -562,8 +1218,8 @@ public class MapCacheSystem {
 	// Gets the unique index of the power node at the given location for
 	// PowerNodeGraph to use in its data structure. <br>
 	// Returns 0 if there is no power node known to be there.
-	private short getPowerNodeID(MapLocation loc) {
-		return powerNodeID[worldToCacheX(loc.x)][worldToCacheY(loc.y)];
+	short getPowerNodeID(MapLocation loc) {
+		return powerNodeGraph.getID(worldToCacheX(loc.x), worldToCacheY(loc.y));
 	}
 
 	// Returns true if the robot knows of a power node at the given location.
@@ -580,6 +1236,212 @@ public class MapCacheSystem {
 		return powerNodeGraph.degreeCount[id] <= 1;
 	}
 
+	// ID of our own power core, 0 until it has been sensed
+	public int ourPowerCoreID() {
+		return powerNodeGraph.getID(POWER_CORE_POSITION, POWER_CORE_POSITION);
+	}
+
+	// Moves a robot needs between two locations on open ground
+	public static int moveDistance(MapLocation a, MapLocation b) {
+		return Math.max(Math.abs(a.x - b.x), Math.abs(a.y - b.y));
+	}
+
+	// Moves from a tile next to node a to a tile next to node b, from the
+	// walking distance tables once either row is ready, until then as if
+	// there were no walls in the way.
+	public int nodeDistance(int a, int b) {
+		PowerNodeGraph png = powerNodeGraph;
+		return png.nodeDistance(a, png.nodeLocations[a], b,
+				png.nodeLocations[b]);
+	}
+
+	// As nodeDistance, for the nodes at two locations, either of which may
+	// not be known yet
+	public int nodeDistance(MapLocation a, MapLocation b) {
+		return powerNodeGraph.nodeDistance(getPowerNodeID(a), a,
+				getPowerNodeID(b), b);
+	}
+
+	// One step of keeping the power node distance tables current: searches
+	// the hop counts from one node, or floods a band of rows of the walking
+	// distances from one node.  Rows for the enemy core and our core come
+	// first, then rows missing nodes, then rows older than
+	// WALK_REFRESH_ROUNDS, so that walls sensed since are taken into account.
+	// Returns true when there is nothing left to do.
+	public boolean distanceStep() {
+		PowerNodeGraph png = powerNodeGraph;
+		if (png.nodeCount < 2)
+			return true;
+		if (png.walk == null)
+			png.allocateDistances();
+		if (png.hopStep())
+			return false;
+		if (floodSource == 0) {
+			int src = png.enemyPowerCoreID;
+			if (src == 0 || !walkStale(src))
+				src = ourPowerCoreID();
+			if (src == 0 || !walkStale(src)) {
+				src = 0;
+				for (int a = 1; a <= png.nodeCount; a++) {
+					if (walkStale(a)) {
+						src = a;
+						break;
+					}
+				}
+			}
+			if (src == 0)
+				return true;
+			startFlood(src);
+		}
+		floodRows();
+		return false;
+	}
+
+	private boolean walkStale(int a) {
+		PowerNodeGraph png = powerNodeGraph;
+		return png.walkNodes[a] < png.nodeCount
+				|| br.curRound - png.walkRound[a] > WALK_REFRESH_ROUNDS;
+	}
+
+	// Sets up a flood from node src: it reaches the node's own tile at move
+	// 0, the land around it at move 1, and so on, kept within the edge
+	// bounds.  A node counts as reached the move the flood gets next to it.
+	private void startFlood(int src) {
+		PowerNodeGraph png = powerNodeGraph;
+		if (flood == null) {
+			flood = new long[MAP_SIZE][BITBOARD_WORDS];
+		} else {
+			for (int x = floodXMin; x <= floodXMax; x++) {
+				long[] row = flood[x];
+				for (int w = 0; w < BITBOARD_WORDS; w++)
+					row[w] = 0;
+			}
+		}
+		MapLocation loc = png.nodeLocations[src];
+		int sx = worldToCacheX(loc.x);
+		int sy = worldToCacheY(loc.y);
+		flood[sx][sy >> 6] |= 1L << sy;
+		floodXMin = floodXMax = sx;
+		floodXLo = Math.max(1, Math.min(sx, edgeLow(EDGE_XMIN) + 1));
+		floodXHi = Math.min(MAP_SIZE - 2, Math.max(sx, edgeHigh(EDGE_XMAX) - 1));
+		int yLo = Math.max(0, Math.min(sy, edgeLow(EDGE_YMIN) + 1));
+		int yHi = Math.min(MAP_SIZE - 1, Math.max(sy, edgeHigh(EDGE_YMAX) - 1));
+		floodW0 = yLo >> 6;
+		floodW1 = yHi >> 6;
+		for (int w = 0; w < BITBOARD_WORDS; w++) {
+			long mask = w < floodW0 || w > floodW1 ? 0 : -1L;
+			if (w == floodW0)
+				mask &= -1L << yLo;
+			if (w == floodW1)
+				mask &= -1L >>> 63 - (yHi & 63);
+			floodMask[w] = mask;
+		}
+
+		short[] row = floodRow;
+		for (int i = row.length; --i >= 0;)
+			row[i] = PowerNodeGraph.FAR;
+		row[src] = 0;
+		floodNodes = png.nodeCount;
+		int n = 0;
+		for (short id = 1; id <= floodNodes; id++) {
+			if (id == src)
+				continue;
+			int x = worldToCacheX(png.nodeLocations[id].x);
+			int i = n++;
+			for (; i > 0
+					&& worldToCacheX(png.nodeLocations[floodTargets[i - 1]].x) > x; i--)
+				floodTargets[i] = floodTargets[i - 1];
+			floodTargets[i] = id;
+		}
+		floodTargetCount = floodLeft = n;
+		floodSource = src;
+		floodMoves = 0;
+		startFloodPass();
+	}
+
+	private void startFloodPass() {
+		floodMoves++;
+		floodX0 = Math.max(floodXMin - 1, floodXLo);
+		floodX1 = Math.min(floodXMax + 1, floodXHi);
+		floodX = floodX0;
+		for (int w = 0; w < BITBOARD_WORDS; w++)
+			floodPrev[w] = 0;
+		floodGrew = false;
+	}
+
+	// Floods up to FLOOD_ROWS_PER_STEP rows of the current pass: each tile
+	// next to one reached before the pass is reached too unless it is a
+	// wall.  Unsensed tiles count as land.
+	private void floodRows() {
+		PowerNodeGraph png = powerNodeGraph;
+		short[] dist = floodRow;
+		int w0 = floodW0;
+		int w1 = floodW1;
+		long[] prev = floodPrev;
+		long[] col = floodCol;
+		long[] dil = floodDil;
+		int end = Math.min(floodX + FLOOD_ROWS_PER_STEP - 1, floodX1);
+		int t = 0;
+		for (int x = floodX; x <= end; x++) {
+			long[] row = flood[x];
+			long[] next = flood[x + 1];
+			long[] walls = wallBits[x];
+			for (int w = w0; w <= w1; w++)
+				col[w] = prev[w] | row[w] | next[w];
+			long any = 0;
+			for (int w = w0; w <= w1; w++) {
+				long c = col[w];
+				long d = c | c << 1 | c >>> 1;
+				if (w > w0)
+					d |= col[w - 1] >>> 63;
+				if (w < w1)
+					d |= col[w + 1] << 63;
+				dil[w] = d;
+				long old = row[w];
+				prev[w] = old;
+				long reached = d & ~walls[w] & floodMask[w];
+				if (reached != old) {
+					row[w] = reached;
+					floodGrew = true;
+				}
+				any |= reached;
+			}
+			if (any != 0) {
+				if (x < floodXMin)
+					floodXMin = x;
+				if (x > floodXMax)
+					floodXMax = x;
+			}
+
+			// nodes in this row that the flood got next to
+			for (; t < floodTargetCount; t++) {
+				int id = floodTargets[t];
+				MapLocation loc = png.nodeLocations[id];
+				int tx = worldToCacheX(loc.x);
+				if (tx > x)
+					break;
+				if (tx < x || dist[id] != PowerNodeGraph.FAR)
+					continue;
+				int ty = worldToCacheY(loc.y);
+				int tw = ty >> 6;
+				if (tw >= w0 && tw <= w1 && (dil[tw] >>> ty & 1) != 0) {
+					dist[id] = (short) Math.max(floodMoves - 2, 0);
+					floodLeft--;
+				}
+			}
+		}
+		floodX = end + 1;
+		if (floodLeft == 0 || floodX > floodX1 && !floodGrew) {
+			floodRow = png.walk[floodSource];
+			png.walk[floodSource] = dist;
+			png.walkNodes[floodSource] = floodNodes;
+			png.walkRound[floodSource] = br.curRound;
+			floodSource = 0;
+		} else if (floodX > floodX1) {
+			startFloodPass();
+		}
+	}
+
 	// Converts from world x coordinates to cache x coordinates.
 	public int worldToCacheX(int worldX) {
 		return worldX - powerCoreWorldX + POWER_CORE_POSITION;
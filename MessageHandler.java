@@ -0,0 +1,12 @@
+package tcwolf;
+
+import battlecode.common.GameActionException;
+
+//Something that consumes received messages of the types it registered for
+//with BroadcastSystem.registerHandler.  The view is only valid for the
+//duration of the call.
+public interface MessageHandler {
+
+	public void processMessage(BroadcastType msgType, MessageView msg)
+			throws GameActionException;
+}
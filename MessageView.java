@@ -0,0 +1,77 @@
+package tcwolf;
+
+import battlecode.common.MapLocation;
+
+//A window onto one message payload inside a received broadcast.
+//  The receive loop reuses a single view and points it at each payload in
+//  turn, so handlers read straight out of the broadcast String and nothing
+//  is copied.  Handlers must not hold on to a view after they return.
+//
+//  The read methods walk the fields of the type's layout in order.  The
+//  fixed fields of a dispatched payload are always present, since short
+//  records are dropped against BroadcastType.minLength.
+public class MessageView {
+
+	//The whole broadcast string this payload lives in
+	String data;
+
+	//Index of the first payload char
+	int offset;
+
+	//Number of payload chars
+	int length;
+
+	//Index of the metadata block of the broadcast
+	int metaOffset;
+
+	//Payload position of the next field to read
+	int pos;
+
+	//Payload char at position i
+	public char charAt(int i) {
+		return data.charAt(offset + i);
+	}
+
+	//Payload length in chars
+	public int length() {
+		return length;
+	}
+
+	//Are there fields left to read?
+	public boolean hasMore() {
+		return pos < length;
+	}
+
+	//Reads a FIELD_USHORT
+	public int readUShort() {
+		return data.charAt(offset + pos++);
+	}
+
+	//Reads a FIELD_UINT
+	public int readUInt() {
+		int i = offset + pos;
+		pos += 2;
+		return data.charAt(i) | data.charAt(i + 1) << 16;
+	}
+
+	//Reads a FIELD_LOC
+	public MapLocation readLoc() {
+		MapLocation loc = BroadcastSystem.decodeRelLoc(this, pos);
+		pos += BroadcastSystem.relLocLength(this, pos);
+		return loc;
+	}
+
+	//Points the view at a payload.
+	void set(String data, int offset, int length, int metaOffset) {
+		this.data = data;
+		this.offset = offset;
+		this.length = length;
+		this.metaOffset = metaOffset;
+		pos = 0;
+	}
+
+	@Override
+	public String toString() {
+		return data.substring(offset, offset + length);
+	}
+}
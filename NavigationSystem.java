@@ -23,7 +23,7 @@ public class NavigationSystem {
 		this.br = br;
 		this.rc = br.rc;
 		mapCache = br.mc;
-		tangentBug = new TangentBug(mapCache.isWall);
+		tangentBug = new TangentBug(mapCache.wallBits);
 		normalBug = new NormalBug();
 		zeroLoc = new MapLocation(0, 0);
 		bugTurnsBlocked = 0;
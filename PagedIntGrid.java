@@ -0,0 +1,54 @@
+package tcwolf;
+
+//Sparse grid of ints, allocated in 16x16 pages on first write.
+//  Every page starts out as one shared all-zero page that is never written,
+//  so a region nobody has touched costs a single reference, and a lookup is
+//  the same two array reads whether its page exists or not.
+public class PagedIntGrid {
+	public final static int PAGE_BITS = 4;
+	public final static int PAGE_SIZE = 1 << PAGE_BITS;
+	private final static int PAGE_MASK = PAGE_SIZE - 1;
+
+	// Stands in for every page that hasn't been written to yet
+	private final static int[] ZERO_PAGE = new int[PAGE_SIZE * PAGE_SIZE];
+
+	// Pages along y, and the pages themselves, column of pages by column
+	private final int pagesY;
+	private final int[][] pages;
+
+	public PagedIntGrid(int xsize, int ysize) {
+		int pagesX = (xsize + PAGE_MASK) >> PAGE_BITS;
+		pagesY = (ysize + PAGE_MASK) >> PAGE_BITS;
+		pages = new int[pagesX * pagesY][];
+		for (int i = pages.length; --i >= 0;)
+			pages[i] = ZERO_PAGE;
+	}
+
+	//Value at (x, y), zero if never set
+	public int get(int x, int y) {
+		int p = (x >> PAGE_BITS) * pagesY + (y >> PAGE_BITS);
+		return pages[p][(x & PAGE_MASK) << PAGE_BITS | y & PAGE_MASK];
+	}
+
+	//Sets (x, y), giving its page storage of its own first if need be
+	public void set(int x, int y, int value) {
+		int p = (x >> PAGE_BITS) * pagesY + (y >> PAGE_BITS);
+		int[] page = pages[p];
+		if (page == ZERO_PAGE) {
+			if (value == 0)
+				return;
+			page = pages[p] = new int[PAGE_SIZE * PAGE_SIZE];
+		}
+		page[(x & PAGE_MASK) << PAGE_BITS | y & PAGE_MASK] = value;
+	}
+
+	//Number of pages that have storage of their own
+	public int allocatedPages() {
+		int n = 0;
+		for (int i = pages.length; --i >= 0;) {
+			if (pages[i] != ZERO_PAGE)
+				n++;
+		}
+		return n;
+	}
+}
@@ -12,11 +12,146 @@ public class PowerNodeGraph {
 	final short[] degreeCount;
 	short enemyPowerCoreID;
 
+	// Node IDs by location, an open addressing hash table with linear
+	// probing.  Keys are cache coordinates packed as x << 8 | y, plus one so
+	// that 0 marks an empty slot.  With at most 50 nodes in 128 slots a
+	// lookup rarely looks past its first slot.
+	private final static int INDEX_BITS = 7;
+	private final static int INDEX_MASK = (1 << INDEX_BITS) - 1;
+	private final int[] indexKeys;
+	private final short[] indexIDs;
+
+	// Distances between nodes, allocated by allocateDistances for robots
+	// that plan captures.  hops[a][b] counts links, walk[a][b] moves from a
+	// tile next to a to a tile next to b (see MapCacheSystem.distanceStep),
+	// both FAR if b can't be reached.  A row is up to date while
+	// hopsEdges[a] matches edgeCount; walk[a] holds nodes up to walkNodes[a]
+	// and was found in round walkRound[a].
+	public final static short FAR = Short.MAX_VALUE;
+	short[][] hops;
+	short[][] walk;
+	int[] hopsEdges;
+	int[] walkNodes;
+	int[] walkRound;
+	private short[] hopQueue;
+	int edgeCount;
+
 	public PowerNodeGraph() {
 		nodeLocations = new MapLocation[51];
 		adjacencyList = new short[51][50];
 		degreeCount = new short[51];
 		nodeSensed = new boolean[51];
+		indexKeys = new int[1 << INDEX_BITS];
+		indexIDs = new short[1 << INDEX_BITS];
+	}
+
+	// ID of the node at cache coordinates (x, y), or 0 if none is known
+	public short getID(int x, int y) {
+		int key = (x << 8 | y) + 1;
+		int slot = key * 0x9E3779B9 >>> 32 - INDEX_BITS;
+		int k;
+		while ((k = indexKeys[slot]) != 0) {
+			if (k == key)
+				return indexIDs[slot];
+			slot = slot + 1 & INDEX_MASK;
+		}
+		return 0;
+	}
+
+	// Links two nodes both ways
+	public void addEdge(short a, short b) {
+		adjacencyList[a][degreeCount[a]++] = b;
+		adjacencyList[b][degreeCount[b]++] = a;
+		edgeCount++;
+	}
+
+	public void allocateDistances() {
+		hops = new short[51][51];
+		walk = new short[51][51];
+		hopsEdges = new int[51];
+		walkNodes = new int[51];
+		walkRound = new int[51];
+		hopQueue = new short[51];
+	}
+
+	// Breadth first searches from one node whose hop row is out of date.
+	// Returns false if every row was up to date.
+	boolean hopStep() {
+		for (int a = 1; a <= nodeCount; a++) {
+			if (hopsEdges[a] != edgeCount) {
+				findHops(a);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void findHops(int a) {
+		short[] row = hops[a];
+		for (int i = row.length; --i >= 0;)
+			row[i] = FAR;
+		short[] queue = hopQueue;
+		int head = 0;
+		int tail = 0;
+		row[a] = 0;
+		queue[tail++] = (short) a;
+		while (head < tail) {
+			int u = queue[head++];
+			short d = (short) (row[u] + 1);
+			short[] adj = adjacencyList[u];
+			for (int i = degreeCount[u]; --i >= 0;) {
+				short v = adj[i];
+				if (row[v] == FAR) {
+					row[v] = d;
+					queue[tail++] = v;
+				}
+			}
+		}
+		hopsEdges[a] = edgeCount;
+	}
+
+	// Links between two nodes, or -1 if no row has been searched yet
+	public int hopDistance(int a, int b) {
+		if (hops == null || hopsEdges[a] == 0)
+			return -1;
+		return hops[a][b];
+	}
+
+	// Moves between the two nodes from whichever walking row has them, or -1
+	public int walkDistance(int a, int b) {
+		if (walk == null)
+			return -1;
+		if (b <= walkNodes[a])
+			return walk[a][b];
+		if (a <= walkNodes[b])
+			return walk[b][a];
+		return -1;
+	}
+
+	// Moves between nodes a and b, standing at aLoc and bLoc, from the
+	// walking rows once either has them.  Until then, or if a node has no
+	// ID yet (0), they are measured on open ground in the same units.
+	public int nodeDistance(int a, MapLocation aLoc, int b, MapLocation bLoc) {
+		int d = a != 0 && b != 0 ? walkDistance(a, b) : -1;
+		return d >= 0 ? d : openDistance(aLoc, bLoc);
+	}
+
+	// Moves from a tile next to one node to a tile next to the other with
+	// no walls in the way, which is what a walking row holds
+	public static int openDistance(MapLocation a, MapLocation b) {
+		int d = Math.max(Math.abs(a.x - b.x), Math.abs(a.y - b.y)) - 2;
+		return d > 0 ? d : 0;
+	}
+
+	// Records the node at cache coordinates (x, y) as having the given ID
+	public void setID(int x, int y, short id) {
+		int key = (x << 8 | y) + 1;
+		int slot = key * 0x9E3779B9 >>> 32 - INDEX_BITS;
+		int k;
+		while ((k = indexKeys[slot]) != 0 && k != key)
+			slot = slot + 1 & INDEX_MASK;
+		indexKeys[slot] = key;
+		indexIDs[slot] = id;
 	}
 
 	@Override
@@ -33,4 +168,29 @@ public class PowerNodeGraph {
 		return ret;
 	}
 
+	/**
+	 * Test code to ensure walked and unwalked nodes rank in the same units
+	 */
+	public static void main(String[] args) {
+		PowerNodeGraph g = new PowerNodeGraph();
+		MapLocation core = new MapLocation(100, 100);
+		MapLocation walked = new MapLocation(112, 100);
+		MapLocation fresh = new MapLocation(111, 100);
+		g.nodeCount = 2;
+		g.nodeLocations[1] = core;
+		g.nodeLocations[2] = walked;
+		g.setID(core.x, core.y, (short) 1);
+		g.setID(walked.x, walked.y, (short) 2);
+		g.allocateDistances();
+		// open ground: ten moves between the tiles next to each node
+		g.walk[1][2] = 10;
+		g.walkNodes[1] = 2;
+
+		int dWalked = g.nodeDistance(1, core, 2, walked);
+		int dFresh = g.nodeDistance(1, core, g.getID(fresh.x, fresh.y), fresh);
+		System.out.println(dWalked + " " + dFresh + ", expected 10 9");
+		System.out.println("nearer: " + (dFresh < dWalked ? fresh : walked)
+				+ ", expected " + fresh);
+	}
+
 }
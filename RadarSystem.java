@@ -26,6 +26,13 @@ public class RadarSystem {
 	public final static int MAX_ENEMY_ROBOTS = 50;
 	public final static int MAX_ADJACENT = 17;
 
+	// Allies of our type this close compete to report enemies for the area
+	public final static int REPORT_LEADER_RADIUS_SQUARED = 64;
+
+	// Cosine of half the sensor angle of our type, which the report leader
+	// shares
+	final double sensorCosHalfAngle;
+
 	public final RobotInfo[] allyInfos = new RobotInfo[MAX_ROBOTS];
 	public final int[] allyTimes = new int[MAX_ROBOTS];
 	public final int[] allyRobots = new int[MAX_ROBOTS];
@@ -103,6 +110,7 @@ public class RadarSystem {
 		needToScanEnemies = true;
 		needToScanAllies = true;
 		robots = null;
+		sensorCosHalfAngle = Math.cos(Math.toRadians(br.myType.sensorAngle / 2.0));
 		closestInDir = new int[10];
 		numEnemyInDir = new int[10];
 		switch (br.myType) {
@@ -459,7 +467,7 @@ public class RadarSystem {
 
 		MapLocation aloc = rinfo.location;
 
-		numAllyRobots++;
+		allyRobots[numAllyRobots++] = pos;
 
 		// archon doesn't care about this
 		// if (rinfo.energon != rinfo.type.maxEnergon) {
@@ -658,8 +666,45 @@ public class RadarSystem {
 				+ allies_in_dir[(dir.ordinal() + 7) % 8];
 	}
 
+	// The ally reporting enemies for this robot's area, or null if this
+	// robot is the one. The lowest ID among allies of our type in sight
+	// leads. Only allies in sight count, since for them we know which way
+	// their sensors face. A dead leader drops out of sight and the next
+	// lowest takes over.
+	public RobotInfo getReportLeader() {
+		int me = br.myID;
+		RobotType type = br.myType;
+		RobotInfo leader = null;
+		for (int i = numAllyRobots; --i >= 0;) {
+			int id = allyRobots[i];
+			RobotInfo ri = allyInfos[id];
+			if (id < me && ri.type == type
+					&& (leader == null || id < leader.robot.getID())
+					&& br.curLoc.distanceSquaredTo(ri.location) <= REPORT_LEADER_RADIUS_SQUARED)
+				leader = ri;
+		}
+		return leader;
+	}
+
+	// Can an ally of our type sense this location, as far as its range and
+	// sensor cone go?
+	private boolean allySenses(RobotInfo ally, MapLocation loc) {
+		int dx = loc.x - ally.location.x;
+		int dy = loc.y - ally.location.y;
+		int distSq = dx * dx + dy * dy;
+		if (distSq > br.myType.sensorRadiusSquared)
+			return false;
+		if (br.myType.sensorAngle >= 360 || distSq == 0)
+			return true;
+		int fx = ally.direction.dx;
+		int fy = ally.direction.dy;
+		return dx * fx + dy * fy >= sensorCosHalfAngle
+				* Math.sqrt(distSq * (fx * fx + fy * fy));
+	}
+
 	// Gets the enemy info from the radar into your own and nearby robots'
-	// extended radar.
+	// extended radar. The elected reporter for the area sends its whole
+	// enemy list, the others only the enemies the reporter can't sense.
 	public void broadcastEnemyInfo(boolean sendOwnInfo) {
 		int localNumEnemyRobots = numEnemyRobots;
 		if (localNumEnemyRobots == 0 && !sendOwnInfo)
@@ -686,7 +731,23 @@ public class RadarSystem {
 		if (br.myType == RobotType.SOLDIER || br.myType == RobotType.DISRUPTER
 				|| br.myType == RobotType.SCORCHER)
 			br.er.integrateEnemyInfo(shorts);
-		br.io.sendUShorts(BroadcastChannel.EXTENDED_RADAR,
+		RobotInfo leader = getReportLeader();
+		if (leader != null) {
+			int c = sendOwnInfo ? 5 : 0;
+			for (int i = 0; i < localNumEnemyRobots; i++) {
+				if (allySenses(leader, enemyInfos[enemyRobots[i]].location))
+					continue;
+				System.arraycopy(shorts, (sendOwnInfo ? 5 : 0) + i * 5, shorts,
+						c, 5);
+				c += 5;
+			}
+			if (c == 0)
+				return;
+			int[] kept = new int[c];
+			System.arraycopy(shorts, 0, kept, 0, c);
+			shorts = kept;
+		}
+		br.io.sendEnemyInfo(BroadcastChannel.EXTENDED_RADAR,
 				BroadcastType.ENEMY_INFO, shorts);
 	}
 
@@ -713,6 +774,7 @@ public class RadarSystem {
 							rinfo.location, RobotLevel.POWER_NODE);
 					if (br.rc.senseConnected(pn)) {
 						br.gameEndDetected = true;
+						br.gameEndSensed = true;
 
 						int estEndTime;
 						if (br.rc.senseOpponentConnected(pn)) {
@@ -54,6 +54,10 @@ public class ScoutRobot extends BaseRobot {
 		nav.setNavigationMode(NavigationMode.GREEDY);
 		io.setChannels(new BroadcastChannel[] { BroadcastChannel.ALL,
 				BroadcastChannel.SCOUTS, BroadcastChannel.EXPLORERS });
+		// map data goes through here too, to be ignored once the game ends
+		io.registerHandler(BroadcastType.LOW_FLUX_HELP, this);
+		io.registerHandler(BroadcastType.MAP_EDGES, this);
+		io.registerHandler(BroadcastType.POWERNODE_FRAGMENTS, this);
 		strategy = StrategyState.INITIAL_EXPLORE;
 		doneWithInitialScout = false;
 		lastRetreatDir = null;
@@ -218,8 +222,10 @@ public class ScoutRobot extends BaseRobot {
 
 		// if we just found out the enemy team this round, broadcast the enemy
 		// team
-		if (tmem.getEnemyTeam() == 0 && mas.guessEnemyTeam() != -1
-				&& curRound % 20 == (myID + 10) % 20) {
+		if (tmem.getEnemyTeam() == 0
+				&& mas.guessEnemyTeam() != -1
+				&& io.criticalDue(BroadcastType.GUESS_ENEMY_TEAM,
+						mas.guessEnemyTeam(), 20)) {
 			io.sendUShort(BroadcastChannel.EXPLORERS,
 					BroadcastType.GUESS_ENEMY_TEAM, mas.guessEnemyTeam());
 		}
@@ -236,11 +242,12 @@ public class ScoutRobot extends BaseRobot {
 		if (curRound % 4 == myID % 4
 				&& behavior == BehaviorState.REPORT_TO_ARCHON
 				&& curLoc.distanceSquaredTo(dc.getClosestArchon()) <= 64) {
-			if (enemySpottedTarget != null)
-				io.sendUShorts(BroadcastChannel.ALL,
-						BroadcastType.ENEMY_SPOTTED, new int[] {
-								enemySpottedRound, enemySpottedTarget.x,
-								enemySpottedTarget.y });
+			if (enemySpottedTarget != null) {
+				io.begin(BroadcastChannel.ALL, BroadcastType.ENEMY_SPOTTED);
+				io.putUShort(enemySpottedRound);
+				io.putLoc(enemySpottedTarget);
+				io.end();
+			}
 		}
 
 		// indicator strings
@@ -351,13 +358,13 @@ public class ScoutRobot extends BaseRobot {
 	}
 
 	@Override
-	public void processMessage(BroadcastType msgType, StringBuilder sb)
+	public void processMessage(BroadcastType msgType, MessageView msg)
 			throws GameActionException {
 		if (!gameEndNow) {
 			switch (msgType) {
 			case LOW_FLUX_HELP:
 				if (helpAllyLocation == null) {
-					helpAllyLocation = BroadcastSystem.decodeSenderLoc(sb);
+					helpAllyLocation = BroadcastSystem.decodeSenderLoc(msg);
 					helpAllyRound = curRound;
 				}
 				if (strategy == StrategyState.SUPPORT) { // go flux ally if
@@ -367,13 +374,11 @@ public class ScoutRobot extends BaseRobot {
 				}
 				break;
 			case MAP_EDGES:
-				ses.receiveMapEdges(BroadcastSystem.decodeUShorts(sb));
-				break;
 			case POWERNODE_FRAGMENTS:
-				ses.receivePowerNodeFragment(BroadcastSystem.decodeInts(sb));
+				ses.processMessage(msgType, msg);
 				break;
 			default:
-				super.processMessage(msgType, sb);
+				super.processMessage(msgType, msg);
 			}
 		}
 	}
@@ -510,6 +515,11 @@ public class ScoutRobot extends BaseRobot {
 					&& Util.randDouble() < 0.05) {
 				ses.broadcastMapEdges();
 			}
+			if (curRound == Clock.getRoundNum()
+					&& Clock.getBytecodesLeft() > 3000
+					&& Util.randDouble() < 0.05) {
+				ses.broadcastMapDigest();
+			}
 		}
 		super.useExtraBytecodes();
 
@@ -523,6 +533,12 @@ public class ScoutRobot extends BaseRobot {
 			// mas.guessEnemyTeam() + ".");
 			mas.load();
 		}
+
+		while (Clock.getRoundNum() == curRound
+				&& Clock.getBytecodesLeft() > 1000) {
+			if (mc.symmetryStep())
+				break;
+		}
 	}
 
 	private Direction getRetreatDir() {
@@ -3,81 +3,177 @@ package tcwolf;
 import battlecode.common.Clock;
 import battlecode.common.MapLocation;
 
-public class SharedExplorationSystem {
+public class SharedExplorationSystem implements MessageHandler {
 	final BaseRobot br;
 	final MapCacheSystem mc;
+	
+	//Most blocks in one map fragment broadcast, and in one run of it
+	static final int MAX_FRAGMENT_BLOCKS = 24;
+	static final int MAX_RUN_BLOCKS = 16;
+	
+	//Block kinds in a map fragment, two bits each
+	static final int BLOCK_LAND = 0; // all sensed, no walls
+	static final int BLOCK_WALL = 1; // all sensed, all walls
+	static final int BLOCK_MIXED = 2; // all sensed, walls char follows
+	static final int BLOCK_PARTIAL = 3; // sensed char and walls char follow
+	
+	//Block columns and rows a digest covers, enough for any map around our
+	//power core at cache position 128
+	static final int DIGEST_FIRST_BLOCK = 16, DIGEST_LAST_BLOCK = 48;
+	
+	//Bitmap of complete blocks last advertised, per block column
+	private final long[] digestSent = new long[MapCacheSystem.PACKED_MAP_SIZE];
+	
+	//The map fragment in the send queue: its blocks, their sensed bits,
+	//and how many fragments had gone out when it was queued.  Its blocks
+	//count as sent only once it goes out too.
+	private final int[] fragmentBlocks = new int[MAX_FRAGMENT_BLOCKS];
+	private final int[] fragmentSensed = new int[MAX_FRAGMENT_BLOCKS];
+	private int fragmentCount;
+	private int fragmentSentBefore;
+	
 	public SharedExplorationSystem(BaseRobot br) {
 		this.br = br;
 		this.mc = br.mc;
+		
+		// archons keep the whole map, fighters only need its bounds
+		switch(br.myType) {
+		case ARCHON:
+			br.io.registerHandler(BroadcastType.MAP_FRAGMENTS, this);
+			br.io.registerHandler(BroadcastType.POWERNODE_FRAGMENTS, this);
+			br.io.registerHandler(BroadcastType.MAP_EDGES, this);
+			br.io.registerHandler(BroadcastType.MAP_DIGEST, this);
+			break;
+		case SCOUT:
+			br.io.registerHandler(BroadcastType.POWERNODE_FRAGMENTS, this);
+			br.io.registerHandler(BroadcastType.MAP_EDGES, this);
+			br.io.registerHandler(BroadcastType.MAP_DIGEST, this);
+			break;
+		default:
+			br.io.registerHandler(BroadcastType.MAP_EDGES, this);
+		}
+	}
+	
+	//Feeds received map data into the map cache.
+	public void processMessage(BroadcastType msgType, MessageView msg) {
+		switch(msgType) {
+		case MAP_EDGES:
+			receiveMapEdges(BroadcastSystem.decodeUShorts(msg));
+			break;
+		case MAP_FRAGMENTS:
+			integrateMapFragment(msg, mc);
+			break;
+		case POWERNODE_FRAGMENTS:
+			receivePowerNodeFragment(BroadcastSystem.decodeInts(msg));
+			break;
+		case MAP_DIGEST:
+			while(msg.hasMore()) {
+				int xb = msg.readUShort();
+				long mask = msg.readUInt() & 0xFFFFFFFFL;
+				if(xb<MapCacheSystem.PACKED_MAP_SIZE)
+					mc.teamHasBlock[xb] |= mask << DIGEST_FIRST_BLOCK;
+			}
+			break;
+		}
 	}
 	
-	//Broadcast a robot's knowledge of part of the map.
+	//Broadcasts the blocks of map this robot has learned something new
+	//about since it last sent them, newest first, skipping blocks some
+	//teammate has already sensed completely.
 	public void broadcastMapFragment() {
-		int startRow;
-		int numRowBlocks;
-		int startCol;
-		int numColBlocks;
-		
-		if(Clock.getRoundNum()/6%2==0) {
-			if(br.mc.edgeXMin!=0) {
-				startCol = (br.mc.edgeXMin+1)/MapCacheSystem.MAP_BLOCK_SIZE;
-				if(br.mc.edgeXMax!=0) {
-					numColBlocks = br.mc.edgeXMax/MapCacheSystem.MAP_BLOCK_SIZE-(br.mc.edgeXMin+1)/MapCacheSystem.MAP_BLOCK_SIZE+1;
-				} else {
-					numColBlocks = 16;
-				}
-			} else if(br.mc.edgeXMax!=0) {
-				numColBlocks = 16;
-				startCol = br.mc.edgeXMax/MapCacheSystem.MAP_BLOCK_SIZE-numColBlocks+1;
-			} else {
-				startCol = 0;
-				numColBlocks = 64;
+		BroadcastSystem io = br.io;
+		if(fragmentCount>0) {
+			if(io.isQueued(BroadcastType.MAP_FRAGMENTS)) return;
+			// gone out, or trimmed or expired, in which case the blocks are
+			// still waiting and go in the next fragment
+			if(io.sentCount(BroadcastType.MAP_FRAGMENTS)!=fragmentSentBefore)
+				mc.markBlocksSent(fragmentBlocks, fragmentSensed, fragmentCount);
+			fragmentCount = 0;
+		}
+		int[] blocks = fragmentBlocks;
+		int n = mc.newestDirtyBlocks(blocks, MAX_FRAGMENT_BLOCKS);
+		if(n==0) return;
+		int[] walls = new int[n];
+		int[] sensed = fragmentSensed;
+		for(int i=0; i<n; i++) {
+			int xb = blocks[i]/MapCacheSystem.PACKED_MAP_SIZE;
+			int yb = blocks[i]%MapCacheSystem.PACKED_MAP_SIZE;
+			walls[i] = mc.packedIsWall(xb, yb) & 0xFFFF;
+			sensed[i] = mc.packedSensed(xb, yb) & 0xFFFF;
+		}
+		fragmentSentBefore = io.sentCount(BroadcastType.MAP_FRAGMENTS);
+		putMapFragment(io, blocks, walls, sensed, n);
+		fragmentCount = n;
+	}
+	//Queues a MAP_FRAGMENTS record for n blocks in increasing block index
+	//order, with their 16 wall and sensed bits.  Blocks with consecutive
+	//indices form a run:
+	//  (count-1) << 12 | index of the first block
+	//  kinds of the blocks, two bits each, in one char or two
+	//  the chars of the blocks that need them, in order: walls for
+	//  BLOCK_MIXED, sensed then walls for BLOCK_PARTIAL
+	static void putMapFragment(BroadcastSystem io, int[] blocks, int[] walls,
+			int[] sensed, int n) {
+		io.begin(BroadcastChannel.EXPLORERS, BroadcastType.MAP_FRAGMENTS);
+		for(int i=0; i<n; ) {
+			int j = i+1;
+			while(j<n && j-i<MAX_RUN_BLOCKS && blocks[j]==blocks[j-1]+1) j++;
+			io.putUShort((j-i-1) << 12 | blocks[i]);
+			int kinds = 0;
+			for(int k=i; k<j; k++) {
+				int kind;
+				if(sensed[k]!=0xFFFF) kind = BLOCK_PARTIAL;
+				else if(walls[k]==0) kind = BLOCK_LAND;
+				else if(walls[k]==0xFFFF) kind = BLOCK_WALL;
+				else kind = BLOCK_MIXED;
+				kinds |= kind << 2*(k-i);
 			}
-			
-			if(br.mc.edgeYMin!=0) {
-				startRow = (br.mc.edgeYMin+1)/MapCacheSystem.MAP_BLOCK_SIZE;
-				if(br.mc.edgeYMax!=0) {
-					numRowBlocks = br.mc.edgeYMax/MapCacheSystem.MAP_BLOCK_SIZE-(br.mc.edgeYMin+1)/MapCacheSystem.MAP_BLOCK_SIZE+1;
-				} else {
-					numRowBlocks = 16;
-				}
-			} else if(br.mc.edgeYMax!=0) {
-				numRowBlocks = 16;
-				startRow = br.mc.edgeYMax/MapCacheSystem.MAP_BLOCK_SIZE-numRowBlocks+1;
-			} else {
-				startRow = 0;
-				numRowBlocks = 64;
+			io.putUShort(kinds & 0xFFFF);
+			if(j-i>8) io.putUShort(kinds >>> 16);
+			for(int k=i; k<j; k++) {
+				int kind = kinds >>> 2*(k-i) & 3;
+				if(kind==BLOCK_PARTIAL) io.putUShort(sensed[k]);
+				if(kind>=BLOCK_MIXED) io.putUShort(walls[k]);
 			}
-		} else {
-			int rotation = (int)(Clock.getRoundNum()/12%4);
-			startRow = br.mc.worldToCacheY(br.curLoc.y)/MapCacheSystem.MAP_BLOCK_SIZE - (rotation/2*2);
-			startCol = br.mc.worldToCacheX(br.curLoc.x)/MapCacheSystem.MAP_BLOCK_SIZE - (rotation%2*2);
-			numRowBlocks = 3;
-			numColBlocks = 3;
+			i = j;
 		}
-		int xb = startCol + ((Clock.getRoundNum()/12+br.myID) % numColBlocks);
-		
-		int[] buffer = new int[256];
+		io.end();
+	}
+	//Advertises which blocks this robot has sensed completely, so others
+	//don't send them to the team again.  Only columns that gained blocks
+	//since the last digest are sent.
+	public void broadcastMapDigest() {
+		int[] cols = new int[DIGEST_LAST_BLOCK-DIGEST_FIRST_BLOCK];
+		int[] masks = new int[DIGEST_LAST_BLOCK-DIGEST_FIRST_BLOCK];
 		int c=0;
-		for(int yb=startRow; yb<startRow+numRowBlocks; yb++) {
-			int data = br.mc.packedSensed[xb][yb];
-			if(data % 65536 == 0) continue;
-			buffer[c++] = br.mc.packedIsWall[xb][yb];
-			buffer[c++] = data;
+		for(int xb=DIGEST_FIRST_BLOCK; xb<DIGEST_LAST_BLOCK; xb++) {
+			long complete = mc.completeBlocks(xb);
+			if(complete==digestSent[xb]) continue;
+			digestSent[xb] = complete;
+			cols[c] = xb;
+			masks[c++] = (int)(complete >>> DIGEST_FIRST_BLOCK);
 		}
-		if(c>0) {
-			int[] ints = new int[c];
-			System.arraycopy(buffer, 0, ints, 0, c);
-			br.io.sendUInts(BroadcastChannel.EXPLORERS, BroadcastType.MAP_FRAGMENTS, ints);
+		if(c==0) return;
+		br.io.begin(BroadcastChannel.EXPLORERS, BroadcastType.MAP_DIGEST);
+		for(int i=0; i<c; i++) {
+			br.io.putUShort(cols[i]);
+			br.io.putUInt(masks[i]);
 		}
+		br.io.end();
 	}
-	//Broadcasts robot's knowledge of the four map edges.
+	//Broadcasts robot's knowledge of the four map edges, and the box of
+	//tiles it knows to be on the map that bounds the ones it doesn't know.
+	//Edges only inferred from the map symmetry are left out.
 	public void broadcastMapEdges() {
 		int[] edges = new int[] {
-				br.mc.edgeXMin, 
-				br.mc.edgeXMax,
-				br.mc.edgeYMin,
-				br.mc.edgeYMax
+				br.mc.sensedEdge(MapCacheSystem.EDGE_XMIN),
+				br.mc.sensedEdge(MapCacheSystem.EDGE_XMAX),
+				br.mc.sensedEdge(MapCacheSystem.EDGE_YMIN),
+				br.mc.sensedEdge(MapCacheSystem.EDGE_YMAX),
+				br.mc.inMapXMin,
+				br.mc.inMapXMax,
+				br.mc.inMapYMin,
+				br.mc.inMapYMax
 		};
 		br.io.sendUShorts(BroadcastChannel.ALL, BroadcastType.MAP_EDGES, edges);
 	}
@@ -102,10 +198,27 @@ public class SharedExplorationSystem {
 		br.io.sendUInts(BroadcastChannel.EXPLORERS, BroadcastType.POWERNODE_FRAGMENTS, ints);
 	}
 	
-	//Receive data equivalent to one broadcast of a map fragment. 
-	public void receiveMapFragment(int[] data) {
-		for(int i=0; i<data.length; i+=2) {
-			br.mc.integrateTerrainInfo(data[i], data[i+1]);
+	//Reads the runs of a map fragment, see putMapFragment, straight into
+	//the map cache.
+	static void integrateMapFragment(MessageView msg, MapCacheSystem mc) {
+		while(msg.hasMore()) {
+			int head = msg.readUShort();
+			int block = head & 0xFFF;
+			int count = (head >>> 12) + 1;
+			int kinds = msg.readUShort();
+			if(count>8) kinds |= msg.readUShort() << 16;
+			for(int k=0; k<count; k++) {
+				int walls, sensed = 0xFFFF;
+				switch(kinds >>> 2*k & 3) {
+				case BLOCK_LAND: walls = 0; break;
+				case BLOCK_WALL: walls = 0xFFFF; break;
+				case BLOCK_MIXED: walls = msg.readUShort(); break;
+				default:
+					sensed = msg.readUShort();
+					walls = msg.readUShort();
+				}
+				mc.integrateTerrainInfo(block+k, walls, sensed);
+			}
 		}
 	}
 	//Receive data equivalent to one broadcast of the four map edges.
@@ -114,6 +227,8 @@ public class SharedExplorationSystem {
 		if(br.mc.edgeXMax==0) br.mc.edgeXMax = data[1];
 		if(br.mc.edgeYMin==0) br.mc.edgeYMin = data[2];
 		if(br.mc.edgeYMax==0) br.mc.edgeYMax = data[3];
+		br.mc.seeInMap(data[4], data[6]);
+		br.mc.seeInMap(data[5], data[7]);
 	}
 	//Receive data equivalent to one broadcast of a power node fragment.
 	public void receivePowerNodeFragment(int[] data) {
@@ -38,6 +38,8 @@ public class SoldierRobot extends BaseRobot {
 		nav.setNavigationMode(NavigationMode.BUG);
 		io.setChannels(new BroadcastChannel[] { BroadcastChannel.ALL,
 				BroadcastChannel.FIGHTERS, BroadcastChannel.EXTENDED_RADAR, });
+		io.registerHandler(BroadcastType.ENEMY_SPOTTED, this);
+		io.registerHandler(BroadcastType.SWARM_TARGET, this);
 		fbs.setPoolMode();
 		behavior = BehaviorState.SWARM;
 		enemySpottedTarget = null;
@@ -309,40 +311,29 @@ public class SoldierRobot extends BaseRobot {
 	}
 
 	@Override
-	public void processMessage(BroadcastType msgType, StringBuilder sb)
+	public void processMessage(BroadcastType msgType, MessageView msg)
 			throws GameActionException {
-		int[] shorts;
 		switch (msgType) {
 		case ENEMY_SPOTTED:
-			shorts = BroadcastSystem.decodeUShorts(sb);
-			if (shorts[0] > enemySpottedRound) {
-				enemySpottedRound = shorts[0];
-				enemySpottedTarget = new MapLocation(shorts[1], shorts[2]);
+			int spottedRound = msg.readUShort();
+			if (spottedRound > enemySpottedRound) {
+				enemySpottedRound = spottedRound;
+				enemySpottedTarget = msg.readLoc();
 			}
 			break;
 		case SWARM_TARGET:
-			shorts = BroadcastSystem.decodeUShorts(sb);
 			int dist = curLoc.distanceSquaredTo(BroadcastSystem
-					.decodeSenderLoc(sb));
+					.decodeSenderLoc(msg));
 			if (dist < closestSwarmTargetSenderDist
 					|| curRound > archonSwarmTime + 5) {
 				closestSwarmTargetSenderDist = dist;
-				archonSwarmTargetIsMoving = shorts[0] != 0;
-				archonSwarmTarget = new MapLocation(shorts[1], shorts[2]);
+				archonSwarmTargetIsMoving = msg.readUShort() != 0;
+				archonSwarmTarget = msg.readLoc();
 				archonSwarmTime = curRound;
 			}
 			break;
-		case ENEMY_INFO:
-			er.integrateEnemyInfo(BroadcastSystem.decodeUShorts(sb));
-			break;
-		case ENEMY_KILL:
-			er.integrateEnemyKill(BroadcastSystem.decodeShort(sb));
-			break;
-		case MAP_EDGES:
-			ses.receiveMapEdges(BroadcastSystem.decodeUShorts(sb));
-			break;
 		default:
-			super.processMessage(msgType, sb);
+			super.processMessage(msgType, msg);
 		}
 	}
 
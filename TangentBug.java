@@ -13,7 +13,8 @@ public class TangentBug {
 	final static int BUFFER_START = 4096;
 	final static int BUFFER_LENGTH = BUFFER_START*2;
 	
-	final boolean[][] map;
+	// Wall bitboard: bit y of map[x][y >> 6] is set for walls
+	final long[][] map;
 	final int xmax;
 	final int ymax;
 	
@@ -29,7 +30,7 @@ public class TangentBug {
 	
 	// Wall variables - cleared every time we start tracing a new wall
 	final int[][] buffer = new int[BUFFER_LENGTH][2];
-	final int[][] wallCache; // fields are curWallCacheID*BUFFER_LENGTH for walls, and curWallCacheID*BUFFER_LENGTH+bufferPos for squares on the trace path
+	final PagedIntGrid wallCache; // fields are curWallCacheID*BUFFER_LENGTH for walls, and curWallCacheID*BUFFER_LENGTH+bufferPos for squares on the trace path
 	int leftWallDir = -1;
 	int rightWallDir = -1; 
 	int curWallCacheID = 1;
@@ -67,15 +68,15 @@ public class TangentBug {
 	int[] bestdDir = new int[2];
 	int findTangentProgress = 0;
 	
-	public TangentBug(boolean[][] map) {
+	public TangentBug(long[][] map) {
 		this.map = map;
 		xmax = map.length;
-		ymax = map[0].length;
+		ymax = map[0].length * 64;
 		edgeXMin = -1;
 		edgeXMax = Integer.MAX_VALUE;
 		edgeYMin = -1;
 		edgeYMax = Integer.MAX_VALUE;
-		wallCache = new int[xmax][ymax];
+		wallCache = new PagedIntGrid(xmax, ymax);
 		reset();
 	}
 	// Completely clears the tangent bug of any state.
@@ -159,7 +160,7 @@ public class TangentBug {
 					int dirTowards = getDirTowards(tx-scanx, ty-scany);
 					scanx += d[dirTowards][0];
 					scany += d[dirTowards][1];
-					if(tracing && !hitWallCache && wallCache[scanx][scany]==curWallCacheID*BUFFER_LENGTH) {
+					if(tracing && !hitWallCache && wallCache.get(scanx, scany)==curWallCacheID*BUFFER_LENGTH) {
 						// we've hit our wall cache! we're still in trace mode
 						hitWallCache = true;
 						hitWallX = scanx;
@@ -205,7 +206,7 @@ public class TangentBug {
 				scanx += d[dirTowards][0];
 				scany += d[dirTowards][1];
 				
-				if(map[scanx][scany]) {
+				if((map[scanx][scany >> 6] & 1L << scany) != 0) {
 					// we've hit a wall! start tracing
 					startTraceHelper(scanx - d[dirTowards][0], scany - d[dirTowards][1], 
 							dirTowards);
@@ -230,11 +231,11 @@ public class TangentBug {
 		if(!tracing) {
 			int[] ret = d[getDirTowards(tx-sx, ty-sy)];
 			clearPreparatoryVariables();
-			return map[sx+ret[0]][sy+ret[1]] ? null : ret;
+			return (map[sx+ret[0]][sy+ret[1] >> 6] & 1L << sy+ret[1]) != 0 ? null : ret;
 		} else if(!hitWallCache && !startedTracingDuringCurrentPrepCycle) {
 			resetWallTrace();
 			int[] ret = d[getDirTowards(tx-sx, ty-sy)];
-			return map[sx+ret[0]][sy+ret[1]] ? null : ret;
+			return (map[sx+ret[0]][sy+ret[1] >> 6] & 1L << sy+ret[1]) != 0 ? null : ret;
 		}
 
 		//find better direction by taking smaller heuristic value
@@ -260,14 +261,14 @@ public class TangentBug {
 		}
 		int x = sx+d[finalDir][0];
 		int y = sy+d[finalDir][1];
-		if(map[x][y] && wallCache[x][y]>curWallCacheID*BUFFER_LENGTH) {
+		if((map[x][y >> 6] & 1L << y) != 0 && wallCache.get(x, y)>curWallCacheID*BUFFER_LENGTH) {
 			// our wall cache is out of date due to newly sensed walls
 			resetWallTrace();
 			return null;
 		}
 			
 		if(!traceDirLocked){
-			while(map[x][y]) {
+			while((map[x][y >> 6] & 1L << y) != 0) {
 				finalDir = (finalDir+(traceDirLastTurn==0?1:-1)+8)%8;
 				x = sx+d[finalDir][0];
 				y = sy+d[finalDir][1];
@@ -282,7 +283,7 @@ public class TangentBug {
 				}
 			}
 			if(!directionalBugging) {
-				if(map[x][y]) {
+				if((map[x][y >> 6] & 1L << y) != 0) {
 					directionalBugging = true;
 					directionalBugDirection = finalDir;
 					directionalBugStartDotProduct = d[finalDir][0]*sx + d[finalDir][1]*sy;
@@ -293,7 +294,7 @@ public class TangentBug {
 				int dot = d[directionalBugDirection][0]*sx + d[directionalBugDirection][1]*sy;
 				x = sx+d[directionalBugDirection][0];
 				y = sy+d[directionalBugDirection][1];
-				if(!map[x][y] && dot > directionalBugStartDotProduct) {
+				if((map[x][y >> 6] & 1L << y) == 0 && dot > directionalBugStartDotProduct) {
 					finalDir = directionalBugDirection;
 					directionalBugging = false;
 				} else {
@@ -301,7 +302,7 @@ public class TangentBug {
 						int i = ((traceDirLastTurn==0?1:-1)*ti + directionalBugWallDir + 8) % 8;
 						x = sx+d[i][0];
 						y = sy+d[i][1];
-						if(map[x][y]) {
+						if((map[x][y >> 6] & 1L << y) != 0) {
 							wx = x; 
 							wy = y;
 						} else {
@@ -331,7 +332,7 @@ public class TangentBug {
 		curWallCacheID++;
 		buffer[BUFFER_START][0] = x;
 		buffer[BUFFER_START][1] = y;
-		wallCache[x][y] = curWallCacheID*BUFFER_LENGTH+BUFFER_START;
+		wallCache.set(x, y, curWallCacheID*BUFFER_LENGTH+BUFFER_START);
 		bufferLeft = BUFFER_START-1;
 		bufferRight = BUFFER_START+1;
 		leftWallDir = dir;
@@ -379,16 +380,16 @@ public class TangentBug {
 			int i = (-1*ti + leftWallDir + d.length) % d.length;
 			int x = buffer[bufferLeft+1][0]+d[i][0];
 			int y = buffer[bufferLeft+1][1]+d[i][1];
-			if(map[x][y]) {
+			if((map[x][y >> 6] & 1L << y) != 0) {
 				wx = x; 
 				wy = y;
 				if(wx<=edgeXMin || wx>=edgeXMax || wy<=edgeYMin || wy>=edgeYMax)
 					hitMapEdge[0] = true;
-				wallCache[wx][wy] = curWallCacheID*BUFFER_LENGTH;
+				wallCache.set(wx, wy, curWallCacheID*BUFFER_LENGTH);
 			} else {
 				buffer[bufferLeft][0] = x;
 				buffer[bufferLeft][1] = y;
-				wallCache[x][y] = curWallCacheID*BUFFER_LENGTH+bufferLeft;
+				wallCache.set(x, y, curWallCacheID*BUFFER_LENGTH+bufferLeft);
 				bufferLeft--;
 				for(int j=0; j<d.length; j++) {
 					if(x+d[j][0]==wx && y+d[j][1]==wy) {
@@ -431,16 +432,16 @@ public class TangentBug {
 			int i = (1*ti + rightWallDir + d.length) % d.length;
 			int x = buffer[bufferRight-1][0]+d[i][0];
 			int y = buffer[bufferRight-1][1]+d[i][1];
-			if(map[x][y]) {
+			if((map[x][y >> 6] & 1L << y) != 0) {
 				wx = x; 
 				wy = y;
 				if(wx<=edgeXMin || wx>=edgeXMax || wy<=edgeYMin || wy>=edgeYMax)
 					hitMapEdge[1] = true;
-				wallCache[wx][wy] = curWallCacheID*BUFFER_LENGTH;
+				wallCache.set(wx, wy, curWallCacheID*BUFFER_LENGTH);
 			} else {
 				buffer[bufferRight][0] = x;
 				buffer[bufferRight][1] = y;
-				wallCache[x][y] = curWallCacheID*BUFFER_LENGTH+bufferRight;
+				wallCache.set(x, y, curWallCacheID*BUFFER_LENGTH+bufferRight);
 				bufferRight++;
 				for(int j=0; j<d.length; j++) {
 					if(x+d[j][0]==wx && y+d[j][1]==wy) {
@@ -459,8 +460,8 @@ public class TangentBug {
 			int dir = (dirHitWallFrom + 4 + ddir) % 8;
 			int x = hitWallX + d[dir][0];
 			int y = hitWallY + d[dir][1];
-			if(wallCache[x][y]>curWallCacheID*BUFFER_LENGTH) {
-				hitWallPos = wallCache[x][y] % BUFFER_LENGTH;
+			if(wallCache.get(x, y)>curWallCacheID*BUFFER_LENGTH) {
+				hitWallPos = wallCache.get(x, y) % BUFFER_LENGTH;
 				return;
 			}
 		}
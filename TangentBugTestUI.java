@@ -20,7 +20,7 @@ public class TangentBugTestUI extends JFrame {
 	public int movesPerSecond = 5;
 	public int mapSize = 30;
 	public int tilePixels = 25;
-	public boolean[][] map;
+	public long[][] map;
 	public int numAlgos = 3;
 	public int[] px, py;
 	public int qx, qy;
@@ -37,7 +37,7 @@ public class TangentBugTestUI extends JFrame {
 
 		for (int n = 0; n < 256; n++)
 			keysHeld[n] = false;
-		map = new boolean[mapSize][mapSize];
+		map = new long[mapSize][(mapSize + 63) / 64];
 		tangentBug = new TangentBug(map);
 		JComponent component = new JComponent() {
 			private static final long serialVersionUID = 41243L;
@@ -51,7 +51,7 @@ public class TangentBugTestUI extends JFrame {
 			public void paintComponent(Graphics g) {
 				for (int x = 0; x < mapSize; x++)
 					for (int y = 0; y < mapSize; y++) {
-						g.setColor(map[x][y] ? Color.black : Color.white);
+						g.setColor(MapCacheSystem.testBit(map, x, y) ? Color.black : Color.white);
 						g.fillRect(x * tilePixels, y * tilePixels, tilePixels,
 								tilePixels);
 					}
@@ -123,7 +123,7 @@ public class TangentBugTestUI extends JFrame {
 					return;
 
 				if (button == MouseEvent.BUTTON1) {
-					if (map[x][y])
+					if (MapCacheSystem.testBit(map, x, y))
 						return;
 					qx = x;
 					qy = y;
@@ -131,8 +131,8 @@ public class TangentBugTestUI extends JFrame {
 					setTitle(qx + " " + qy);
 				}
 				if (button == MouseEvent.BUTTON3) {
-					dragging = map[x][y] ? 0 : 1;
-					map[x][y] = !map[x][y];
+					dragging = MapCacheSystem.testBit(map, x, y) ? 0 : 1;
+					MapCacheSystem.setBit(map, x, y, dragging == 1);
 				}
 				repaint();
 			}
@@ -152,9 +152,9 @@ public class TangentBugTestUI extends JFrame {
 				if (x < 0 || y < 0 || x >= mapSize || y >= mapSize)
 					return;
 				if (dragging == 0)
-					map[x][y] = false;
+					MapCacheSystem.setBit(map, x, y, false);
 				else if (dragging == 1)
-					map[x][y] = true;
+					MapCacheSystem.setBit(map, x, y, true);
 				repaint();
 			}
 		}
@@ -189,20 +189,19 @@ public class TangentBugTestUI extends JFrame {
 	public void init() {
 		for (int x = 0; x < mapSize; x++)
 			for (int y = 0; y < mapSize; y++) {
-				map[x][y] = false;
-				map[x][y] = (x == 0 || y == 0 || x == mapSize - 1 || y == mapSize - 1) ? true
-						: map[x][y];
+				MapCacheSystem.setBit(map, x, y, x == 0 || y == 0
+						|| x == mapSize - 1 || y == mapSize - 1);
 
 			}
 		for (int i = 0; i < numAlgos; i++) {
 			px[i] = 15;
 			py[i] = 26;
-			map[px[i]][py[i]] = false;
+			MapCacheSystem.setBit(map, px[i], py[i], false);
 		}
 		qx = 15;
 		qy = 21;
 		tangentBug.setTarget(qx, qy);
-		map[qx][qy] = false;
+		MapCacheSystem.setBit(map, qx, qy, false);
 		moveCount = 0;
 
 	}